@@ -0,0 +1,92 @@
+package com.RNColorThief;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The adaptive extraction at quality 1, to compare with {@link ExtractBenchmark} at fixed
+ * qualities. Besides the time, it reports the share of the pixels sampled before the palette
+ * converged and how far the palette is from the one of sampling every pixel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdaptiveBenchmark {
+
+    @Param({SyntheticImages.PHOTO, SyntheticImages.FLAT, SyntheticImages.GRADIENT,
+            SyntheticImages.NEAR_WHITE})
+    public String image;
+
+    @Param({"5", "16"})
+    public int colorCount;
+
+    @Param({"4", "8", "16"})
+    public double tolerance;
+
+    private PixelSource source;
+    private int[][] fullPalette;
+
+    /**
+     * Outcome of the last extraction of the iteration, which is the same for every extraction.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Outcome {
+        /** Share of the pixels sampled, in percent. */
+        public double sampledPercent;
+        /** Largest distance in RGB space from a color of the full palette to the nearest one. */
+        public double maxDistance;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int width = SyntheticImages.LARGE_WIDTH;
+        int height = SyntheticImages.LARGE_HEIGHT;
+        int[] argb = SyntheticImages.create(image, width, height);
+        source = new ArgbPixelSource(argb, width, height);
+
+        GoldenCheck.verifyAdaptiveSampling(image, argb, width, height, 1, Sampling.DEFAULT);
+        fullPalette = PaletteExtractor.getColorMap(source, null, colorCount, 1, true,
+                MMCQ.DEFAULT_SIGBITS, 1, CancellationToken.NONE).palette();
+    }
+
+    @Benchmark
+    public MMCQ.CMap extractAdaptive(Outcome outcome) {
+        MMCQ.Histogram histogram = MMCQ.Histogram.obtain(MMCQ.DEFAULT_SIGBITS);
+        try {
+            // at quality 1 both samplings take every pixel
+            AdaptiveSampler sampler = new AdaptiveSampler(source, null, 1, Sampling.DEFAULT, true,
+                    tolerance, histogram);
+            MMCQ.CMap cmap = null;
+            while (sampler.hasNextPass()) {
+                sampler.samplePass(CancellationToken.NONE);
+                cmap = MMCQ.quantize(histogram, colorCount, CancellationToken.NONE);
+                if (sampler.hasConverged(cmap)) {
+                    break;
+                }
+            }
+            long pixels = (long) source.getWidth() * source.getHeight();
+            outcome.sampledPercent = 100.0 * histogram.size() / pixels;
+            outcome.maxDistance = GoldenCheck.paletteDistance(fullPalette, cmap.palette());
+            return cmap;
+        } finally {
+            histogram.recycle();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.RNColorThief;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The whole extraction as on the device, sampling straight from an ARGB buffer into the histogram
+ * and quantizing it, on one or several threads, with either sampling and at 4 to 6 significant
+ * bits. Every parameter combination is checked against the reference quantizer (or, where there is
+ * none, against one thread) before it is measured, and reports how far its palette is from the one
+ * at 6 bits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExtractBenchmark {
+
+    @Param({SyntheticImages.PHOTO, SyntheticImages.FLAT, SyntheticImages.GRADIENT,
+            SyntheticImages.NEAR_WHITE})
+    public String image;
+
+    @Param({"5", "16"})
+    public int colorCount;
+
+    @Param({"1", "5", "10", "20"})
+    public int quality;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"linear", "grid"})
+    public String sampling;
+
+    @Param({"4", "5", "6"})
+    public int sigbits;
+
+    private PixelSource source;
+    private Sampling samplingMode;
+    private double distance;
+
+    /**
+     * Accuracy of the palette, the same for every extraction.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Accuracy {
+        /** Largest distance in RGB space from a color of the 6 bit palette to the nearest one. */
+        public double maxDistance;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int width = SyntheticImages.LARGE_WIDTH;
+        int height = SyntheticImages.LARGE_HEIGHT;
+        int[] argb = SyntheticImages.create(image, width, height);
+        source = new ArgbPixelSource(argb, width, height);
+        samplingMode = Sampling.fromKey(sampling);
+
+        GoldenCheck.verifyExtraction(image + " (quality " + quality + ")", argb, width, height,
+                quality, colorCount, samplingMode, sigbits, parallelism);
+        distance = GoldenCheck.paletteDistance(
+                PaletteExtractor.getColorMap(source, null, colorCount, quality, samplingMode, true,
+                        MMCQ.MAX_SIGBITS, 1, CancellationToken.NONE).palette(),
+                PaletteExtractor.getColorMap(source, null, colorCount, quality, samplingMode, true,
+                        sigbits, 1, CancellationToken.NONE).palette());
+    }
+
+    @Benchmark
+    public MMCQ.CMap extract(Accuracy accuracy) {
+        accuracy.maxDistance = distance;
+        return PaletteExtractor.getColorMap(
+                source,
+                null,
+                colorCount,
+                quality,
+                samplingMode,
+                true,
+                sigbits,
+                parallelism,
+                CancellationToken.NONE);
+    }
+}
@@ -0,0 +1,241 @@
+package com.RNColorThief;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs {@link ImageFetcher} against a local HTTP server: validators and 304 responses of
+ * conditional requests, statuses other than 2xx, responses over the size limit with and without a
+ * Content-Length, and the read timeout. Cancellation isn't covered: unlike Android's, the JDK's
+ * HttpURLConnection doesn't abort a blocked read when disconnected from another thread.
+ */
+public final class FetcherCheck {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String LAST_MODIFIED = "Wed, 21 Oct 2026 07:28:00 GMT";
+    private static final byte[] BODY = new byte[1000];
+
+    static {
+        Arrays.fill(BODY, (byte) 42);
+    }
+
+    private static final int READ_TIMEOUT_MS = 300;
+    private static final int SLOW_RESPONSE_MS = 3000;
+
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final String baseUrl;
+
+    private FetcherCheck() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/image", new ImageHandler());
+        server.createContext("/missing", new StatusHandler(404));
+        server.createContext("/error", new StatusHandler(500));
+        server.createContext("/slow", new SlowHandler());
+        // the slow handler must not hold up the others
+        handlers = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FetcherCheck-server");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(handlers);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    /**
+     * Answers with the body and both validators, or with 304 if the request carries a matching
+     * one. With ?chunked the length isn't announced.
+     */
+    private static class ImageHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            exchange.getResponseHeaders().set("ETag", ETAG);
+            exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+            if (ETAG.equals(ifNoneMatch) || LAST_MODIFIED.equals(ifModifiedSince)) {
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            boolean chunked = "chunked".equals(exchange.getRequestURI().getQuery());
+            exchange.sendResponseHeaders(200, chunked ? 0 : BODY.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(BODY);
+            body.close();
+        }
+    }
+
+    private static class StatusHandler implements HttpHandler {
+        private final int status;
+
+        StatusHandler(int status) {
+            this.status = status;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            byte[] message = ("status " + status).getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, message.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(message);
+            body.close();
+        }
+    }
+
+    /**
+     * Sends the headers and half the body, then stalls.
+     */
+    private static class SlowHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.sendResponseHeaders(200, BODY.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(BODY, 0, BODY.length / 2);
+            body.flush();
+            try {
+                Thread.sleep(SLOW_RESPONSE_MS);
+                body.write(BODY, BODY.length / 2, BODY.length - BODY.length / 2);
+                body.close();
+            } catch (InterruptedException | IOException e) {
+                exchange.close();
+            }
+        }
+    }
+
+    private ImageFetcher.Response fetch(ImageFetcher fetcher, String path,
+            ImageFetcher.Validators validators) throws IOException {
+        return fetcher.fetch(baseUrl + path, validators, CancellationToken.NONE);
+    }
+
+    private void checkFetch() throws IOException {
+        ImageFetcher.Response response = fetch(new ImageFetcher(), "/image", null);
+        check(!response.notModified, "unconditional request answered as not modified");
+        check(Arrays.equals(BODY, response.body), "body differs");
+        check(ETAG.equals(response.validators.etag), "ETag not picked up");
+        check(LAST_MODIFIED.equals(response.validators.lastModified),
+                "Last-Modified not picked up");
+
+        response = fetch(new ImageFetcher(), "/image?chunked", null);
+        check(Arrays.equals(BODY, response.body), "chunked body differs");
+    }
+
+    private void checkNotModified() throws IOException {
+        ImageFetcher.Validators[] conditions = {
+                new ImageFetcher.Validators(ETAG, null),
+                new ImageFetcher.Validators(null, LAST_MODIFIED),
+                new ImageFetcher.Validators(ETAG, LAST_MODIFIED) };
+        for (ImageFetcher.Validators validators : conditions) {
+            ImageFetcher.Response response = fetch(new ImageFetcher(), "/image", validators);
+            check(response.notModified, "304 not reported for etag " + validators.etag
+                    + " and last modified " + validators.lastModified);
+            check(response.body == null, "304 with a body");
+            check(response.validators == validators, "304 without the validators sent");
+        }
+
+        ImageFetcher.Response response = fetch(new ImageFetcher(), "/image",
+                new ImageFetcher.Validators("\"v0\"", null));
+        check(!response.notModified && Arrays.equals(BODY, response.body),
+                "changed image not fetched");
+    }
+
+    private void checkStatus() {
+        for (String path : new String[] {"/missing", "/error"}) {
+            try {
+                fetch(new ImageFetcher(), path, null);
+                fail(path + " didn't fail");
+            } catch (IOException e) {
+                check(e.getMessage() != null && e.getMessage().startsWith("HTTP "),
+                        path + " failed with " + e);
+            }
+        }
+    }
+
+    private void checkMaxResponseBytes() throws IOException {
+        ImageFetcher small = new ImageFetcher(
+                ImageFetcher.DEFAULT_CONNECT_TIMEOUT_MS,
+                ImageFetcher.DEFAULT_READ_TIMEOUT_MS,
+                BODY.length - 1);
+        // refused by the Content-Length, then while reading the chunks
+        for (String path : new String[] {"/image", "/image?chunked"}) {
+            try {
+                fetch(small, path, null);
+                fail(path + " over the size limit didn't fail");
+            } catch (IOException e) {
+                check(e.getMessage() != null && e.getMessage().contains("larger than"),
+                        path + " over the size limit failed with " + e);
+            }
+        }
+
+        ImageFetcher exact = new ImageFetcher(
+                ImageFetcher.DEFAULT_CONNECT_TIMEOUT_MS,
+                ImageFetcher.DEFAULT_READ_TIMEOUT_MS,
+                BODY.length);
+        check(Arrays.equals(BODY, fetch(exact, "/image?chunked", null).body),
+                "body of exactly the size limit refused");
+    }
+
+    private void checkReadTimeout() {
+        ImageFetcher fetcher = new ImageFetcher(
+                ImageFetcher.DEFAULT_CONNECT_TIMEOUT_MS,
+                READ_TIMEOUT_MS,
+                ImageFetcher.DEFAULT_MAX_RESPONSE_BYTES);
+        long start = System.nanoTime();
+        try {
+            fetch(fetcher, "/slow", null);
+            fail("stalled response didn't time out");
+        } catch (SocketTimeoutException e) {
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            check(elapsedMs < SLOW_RESPONSE_MS, "read timed out only after " + elapsedMs + " ms");
+        } catch (IOException e) {
+            fail("stalled response failed with " + e);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            fail(message);
+        }
+    }
+
+    private static void fail(String message) {
+        throw new IllegalStateException(message);
+    }
+
+    public static void main(String[] args) throws IOException {
+        FetcherCheck check = new FetcherCheck();
+        try {
+            check.checkFetch();
+            check.checkNotModified();
+            check.checkStatus();
+            check.checkMaxResponseBytes();
+            check.checkReadTimeout();
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        } finally {
+            check.stop();
+        }
+        System.out.println("ImageFetcher behaves as specified against the local server.");
+    }
+}
@@ -0,0 +1,176 @@
+package com.RNColorThief;
+
+import java.util.Arrays;
+
+/**
+ * Checks that {@link MMCQ}, and the extraction from a pixel source, give exactly the palettes of
+ * {@link ReferenceMMCQ}, so a faster variant can't get away with different colors. The benchmarks
+ * verify their own parameters in their setup; {@link #main(String[])} goes through every color
+ * count from 2 to 256, and checks that the passes of the {@link AdaptiveSampler} add up to the
+ * pixels sampled at the quality. Grid sampling has no reference; with several threads it is
+ * checked against sampling on one.
+ */
+public final class GoldenCheck {
+
+    private static final int[] QUALITIES = {1, 5, 10, 20};
+
+    private GoldenCheck() {
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if the palettes differ
+     */
+    public static void verify(String name, int[][] pixels, int colorCount) {
+        int[][] expected = palette(ReferenceMMCQ.quantize(pixels, colorCount));
+        int[][] actual = palette(MMCQ.quantize(pixels, colorCount));
+        if (!Arrays.deepEquals(expected, actual)) {
+            throw new IllegalStateException("Palette of " + name + " with " + colorCount
+                    + " colors differs from the reference: expected "
+                    + Arrays.deepToString(expected) + " but was " + Arrays.deepToString(actual));
+        }
+    }
+
+    /**
+     * Checks the extraction from an ARGB buffer, which samples straight into the histogram: with
+     * linear sampling at the default significant bits against the reference quantizer on the
+     * pixels sampled the original way, otherwise against the extraction on one thread.
+     *
+     * @throws IllegalStateException
+     *             if the palettes differ
+     */
+    public static void verifyExtraction(
+            String name,
+            int[] argb,
+            int width,
+            int height,
+            int quality,
+            int colorCount,
+            Sampling sampling,
+            int sigbits,
+            int parallelism) {
+        PixelSource source = new ArgbPixelSource(argb, width, height);
+        int[][] expected;
+        if (sampling == Sampling.LINEAR && sigbits == MMCQ.DEFAULT_SIGBITS) {
+            int[][] pixels = SyntheticImages.samplePixels(argb, quality, true);
+            expected = palette(ReferenceMMCQ.quantize(pixels, colorCount));
+        } else {
+            expected = palette(PaletteExtractor.getColorMap(source, null, colorCount, quality,
+                    sampling, true, sigbits, 1, CancellationToken.NONE));
+        }
+        int[][] actual = palette(PaletteExtractor.getColorMap(
+                source,
+                null,
+                colorCount,
+                quality,
+                sampling,
+                true,
+                sigbits,
+                parallelism,
+                CancellationToken.NONE));
+        if (!Arrays.deepEquals(expected, actual)) {
+            throw new IllegalStateException("Extracted palette of " + name + " with " + colorCount
+                    + " colors, " + sigbits + " bits and " + sampling.key
+                    + " sampling differs from the reference: expected "
+                    + Arrays.deepToString(expected) + " but was " + Arrays.deepToString(actual));
+        }
+    }
+
+    /**
+     * Checks that the passes of the adaptive sampling, all of them sampled, add up to the pixels
+     * sampled at the quality in one go. Only the histograms are compared: the bounds the quantizer
+     * starts from depend on the order the pixels were added in, so the palettes may differ a bit.
+     *
+     * @throws IllegalStateException
+     *             if the histograms differ
+     */
+    public static void verifyAdaptiveSampling(
+            String name,
+            int[] argb,
+            int width,
+            int height,
+            int quality,
+            Sampling sampling) {
+        PixelSource source = new ArgbPixelSource(argb, width, height);
+        MMCQ.Histogram expected = new MMCQ.Histogram();
+        PaletteExtractor.getPixels(source, null, quality, sampling, true, 1, expected,
+                CancellationToken.NONE);
+
+        MMCQ.Histogram actual = new MMCQ.Histogram();
+        AdaptiveSampler sampler = new AdaptiveSampler(source, null, quality, sampling, true,
+                AdaptiveSampler.DEFAULT_TOLERANCE, actual);
+        while (sampler.hasNextPass()) {
+            sampler.samplePass(CancellationToken.NONE);
+        }
+        if (expected.size() != actual.size() || !Arrays.equals(expected.histo, actual.histo)) {
+            throw new IllegalStateException("Adaptive " + sampling.key + " sampling of " + name
+                    + " in " + sampler.getPass() + " passes differs from sampling at the quality: "
+                    + actual.size() + " pixels instead of " + expected.size());
+        }
+    }
+
+    /**
+     * @return the largest distance in RGB space from a color of the expected palette to the
+     *         nearest color of the actual one
+     */
+    public static double paletteDistance(int[][] expected, int[][] actual) {
+        double max = 0;
+        for (int[] color : expected) {
+            double nearest = Double.MAX_VALUE;
+            for (int[] other : actual) {
+                int dr = color[0] - other[0];
+                int dg = color[1] - other[1];
+                int db = color[2] - other[2];
+                nearest = Math.min(nearest, Math.sqrt(dr * dr + dg * dg + db * db));
+            }
+            max = Math.max(max, nearest);
+        }
+        return max;
+    }
+
+    private static int[][] palette(ReferenceMMCQ.CMap cmap) {
+        return cmap != null ? cmap.palette() : null;
+    }
+
+    private static int[][] palette(MMCQ.CMap cmap) {
+        return cmap != null ? cmap.palette() : null;
+    }
+
+    /**
+     * Verifies all synthetic images at all qualities and color counts; exits with status 1 on the
+     * first difference.
+     */
+    public static void main(String[] args) {
+        int numChecks = 0;
+        for (String kind : SyntheticImages.KINDS) {
+            int[] argb = SyntheticImages.create(kind, SyntheticImages.WIDTH, SyntheticImages.HEIGHT);
+            for (int quality : QUALITIES) {
+                for (Sampling sampling : Sampling.values()) {
+                    try {
+                        verifyAdaptiveSampling(kind + " (quality " + quality + ")", argb,
+                                SyntheticImages.WIDTH, SyntheticImages.HEIGHT, quality, sampling);
+                    } catch (IllegalStateException e) {
+                        System.err.println(e.getMessage());
+                        System.exit(1);
+                    }
+                    numChecks++;
+                }
+
+                int[][] pixels = SyntheticImages.samplePixels(argb, quality, true);
+                for (int colorCount = 2; colorCount <= 256; colorCount++) {
+                    try {
+                        verify(kind + " (quality " + quality + ")", pixels, colorCount);
+                        verifyExtraction(kind + " (quality " + quality + ")", argb,
+                                SyntheticImages.WIDTH, SyntheticImages.HEIGHT, quality, colorCount,
+                                Sampling.LINEAR, MMCQ.DEFAULT_SIGBITS, 1);
+                    } catch (IllegalStateException e) {
+                        System.err.println(e.getMessage());
+                        System.exit(1);
+                    }
+                    numChecks += 2;
+                }
+            }
+        }
+        System.out.println(numChecks + " palettes and histograms match the reference.");
+    }
+}
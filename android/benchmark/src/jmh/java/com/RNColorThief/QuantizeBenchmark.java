@@ -0,0 +1,95 @@
+package com.RNColorThief;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput and latency percentiles (sample time mode) of {@link MMCQ#quantize}; run with the
+ * gc profiler for the allocation rate. Every parameter combination at the default significant
+ * bits is checked against the reference quantizer before it is measured. For the trade-off between
+ * speed and accuracy, each also reports how far its palette is from the one at 6 bits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantizeBenchmark {
+
+    @Param({SyntheticImages.PHOTO, SyntheticImages.FLAT, SyntheticImages.GRADIENT,
+            SyntheticImages.NEAR_WHITE})
+    public String image;
+
+    @Param({"2", "5", "16", "64", "256"})
+    public int colorCount;
+
+    @Param({"1", "5", "10", "20"})
+    public int quality;
+
+    @Param({"4", "5", "6"})
+    public int sigbits;
+
+    private int[][] pixels;
+    private MMCQ.Histogram histogram;
+    private double distance;
+
+    /**
+     * Accuracy of the palette, the same for every quantization.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Accuracy {
+        /** Largest distance in RGB space from a color of the 6 bit palette to the nearest one. */
+        public double maxDistance;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] argb = SyntheticImages.create(image, SyntheticImages.WIDTH, SyntheticImages.HEIGHT);
+        pixels = SyntheticImages.samplePixels(argb, quality, true);
+
+        histogram = new MMCQ.Histogram(sigbits);
+        for (int[] pixel : pixels) {
+            histogram.add(pixel[0], pixel[1], pixel[2]);
+        }
+
+        if (sigbits == MMCQ.DEFAULT_SIGBITS) {
+            GoldenCheck.verify(image + " (quality " + quality + ")", pixels, colorCount);
+        }
+        distance = GoldenCheck.paletteDistance(
+                MMCQ.quantize(pixels, colorCount, MMCQ.MAX_SIGBITS).palette(),
+                MMCQ.quantize(pixels, colorCount, sigbits).palette());
+    }
+
+    /**
+     * Histogram and median cut, from the sampled pixels.
+     */
+    @Benchmark
+    public MMCQ.CMap quantizePixels(Accuracy accuracy) {
+        accuracy.maxDistance = distance;
+        return MMCQ.quantize(pixels, colorCount, sigbits);
+    }
+
+    /**
+     * Median cut only, from a histogram built while sampling as the extraction does.
+     */
+    @Benchmark
+    public MMCQ.CMap quantizeHistogram(Accuracy accuracy) {
+        accuracy.maxDistance = distance;
+        return MMCQ.quantize(histogram, colorCount);
+    }
+}
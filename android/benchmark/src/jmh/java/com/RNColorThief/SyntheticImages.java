@@ -0,0 +1,185 @@
+package com.RNColorThief;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic images for the benchmarks, as ARGB ints in row-major order like
+ * Bitmap.getPixels(), so every run quantizes the same pixels.
+ */
+public final class SyntheticImages {
+
+    public static final String PHOTO = "photo";
+    public static final String FLAT = "flat";
+    public static final String GRADIENT = "gradient";
+    public static final String NEAR_WHITE = "nearWhite";
+
+    public static final String[] KINDS = {PHOTO, FLAT, GRADIENT, NEAR_WHITE};
+
+    public static final int WIDTH = 400;
+    public static final int HEIGHT = 300;
+
+    // large enough to be sampled on several threads
+    public static final int LARGE_WIDTH = 1600;
+    public static final int LARGE_HEIGHT = 1200;
+
+    private static final long SEED = 0x5EEDL;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * @param kind
+     *            one of {@link #KINDS}
+     * @throws IllegalArgumentException
+     *             if the kind is unknown
+     */
+    public static int[] create(String kind, int width, int height) {
+        Random random = new Random(SEED);
+        if (PHOTO.equals(kind)) {
+            return photo(width, height, random);
+        } else if (FLAT.equals(kind)) {
+            return flat(width, height, random);
+        } else if (GRADIENT.equals(kind)) {
+            return gradient(width, height);
+        } else if (NEAR_WHITE.equals(kind)) {
+            return nearWhite(width, height, random);
+        }
+        throw new IllegalArgumentException("Unknown image kind " + kind + ".");
+    }
+
+    /**
+     * Samples the pixels the way the original ColorThief.getPixels() did: every quality-th pixel,
+     * leaving out white ones if asked to.
+     *
+     * @return an array of pixels (each an RGB int array)
+     */
+    public static int[][] samplePixels(int[] argb, int quality, boolean ignoreWhite) {
+        int[][] res = new int[(argb.length + quality - 1) / quality][];
+        int numUsedPixels = 0;
+
+        for (int i = 0; i < argb.length; i += quality) {
+            int r = (argb[i] >> 16) & 0xFF;
+            int g = (argb[i] >> 8) & 0xFF;
+            int b = argb[i] & 0xFF;
+            if (!(ignoreWhite && r > 250 && g > 250 && b > 250)) {
+                res[numUsedPixels++] = new int[] {r, g, b};
+            }
+        }
+
+        return Arrays.copyOfRange(res, 0, numUsedPixels);
+    }
+
+    /**
+     * Smooth blobs of color with sensor noise, standing in for a photograph.
+     */
+    private static int[] photo(int width, int height, Random random) {
+        int numBlobs = 12;
+        double[] cx = new double[numBlobs];
+        double[] cy = new double[numBlobs];
+        double[] radius = new double[numBlobs];
+        int[][] color = new int[numBlobs][];
+        for (int i = 0; i < numBlobs; i++) {
+            cx[i] = random.nextDouble() * width;
+            cy[i] = random.nextDouble() * height;
+            radius[i] = (0.1 + random.nextDouble() * 0.3) * width;
+            color[i] = new int[] {random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+        }
+
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double r = 0, g = 0, b = 0, weights = 0;
+                for (int i = 0; i < numBlobs; i++) {
+                    double dx = (x - cx[i]) / radius[i];
+                    double dy = (y - cy[i]) / radius[i];
+                    double weight = Math.exp(-(dx * dx + dy * dy));
+                    r += weight * color[i][0];
+                    g += weight * color[i][1];
+                    b += weight * color[i][2];
+                    weights += weight;
+                }
+                weights = Math.max(weights, 1e-9);
+                pixels[y * width + x] = rgb(
+                        r / weights + random.nextGaussian() * 6,
+                        g / weights + random.nextGaussian() * 6,
+                        b / weights + random.nextGaussian() * 6);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * A few flat colors in rectangles on a plain background, like a screenshot of a user
+     * interface.
+     */
+    private static int[] flat(int width, int height, Random random) {
+        int[] pixels = new int[width * height];
+        Arrays.fill(pixels, rgb(245, 245, 247));
+
+        int[][] colors = new int[6][];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = new int[] {random.nextInt(256), random.nextInt(256), random.nextInt(256)};
+        }
+
+        for (int i = 0; i < 40; i++) {
+            int[] color = colors[random.nextInt(colors.length)];
+            int left = random.nextInt(width);
+            int top = random.nextInt(height);
+            int right = Math.min(width, left + 10 + random.nextInt(width / 3));
+            int bottom = Math.min(height, top + 10 + random.nextInt(height / 4));
+            for (int y = top; y < bottom; y++) {
+                Arrays.fill(pixels, y * width + left, y * width + right,
+                        rgb(color[0], color[1], color[2]));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Linear gradients over all three channels.
+     */
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double u = (double) x / (width - 1);
+                double v = (double) y / (height - 1);
+                pixels[y * width + x] = rgb(255 * u, 255 * v, 255 * (1 - u) * (1 - v));
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Mostly white and almost white paper with some dark text-like strokes, the case where
+     * ignoreWhite leaves out most of the pixels.
+     */
+    private static int[] nearWhite(int width, int height, Random random) {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            int value = 240 + random.nextInt(16);
+            pixels[i] = rgb(value, value, value - random.nextInt(4));
+        }
+
+        for (int i = 0; i < 300; i++) {
+            int x = random.nextInt(width - 20);
+            int y = random.nextInt(height - 3);
+            int length = 5 + random.nextInt(15);
+            int value = random.nextInt(80);
+            for (int dy = 0; dy < 3; dy++) {
+                Arrays.fill(pixels, (y + dy) * width + x, (y + dy) * width + x + length,
+                        rgb(value, value, value + 40));
+            }
+        }
+        return pixels;
+    }
+
+    private static int rgb(double r, double g, double b) {
+        return 0xFF000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
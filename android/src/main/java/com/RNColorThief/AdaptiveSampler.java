@@ -0,0 +1,239 @@
+package com.RNColorThief;
+
+import com.RNColorThief.MMCQ.CMap;
+import com.RNColorThief.MMCQ.Histogram;
+
+/**
+ * Samples regions in progressive passes instead of all at once. Every pass samples whole bands
+ * the way {@link PaletteExtractor#sampleBands} does at the given quality - rows of the image for
+ * linear sampling, rows of the grid for grid sampling: the first pass every n-th band, every
+ * further pass the bands halfway between those sampled so far, so each pass doubles the samples
+ * in the histogram and the last one leaves exactly the pixels of sampling at the quality in it.
+ * Refining by bands rather than by a coarser stride over the pixels keeps every pass spread over
+ * all columns, whatever the width of the image.
+ *
+ * After each pass the caller quantizes the histogram and stops as soon as the palette has
+ * converged, see {@link #hasConverged(CMap)}, so images whose colors show up in a few thousand
+ * samples don't pay for all of them.
+ */
+public class AdaptiveSampler {
+
+    /**
+     * Default largest distance in RGB space between the colors of two successive palettes for
+     * them to count as the same.
+     */
+    public static final double DEFAULT_TOLERANCE = 8;
+
+    /**
+     * Number of passes in a row the palette has to stay within the tolerance; one lucky pair of
+     * passes isn't enough.
+     */
+    static final int STABLE_PASSES = 2;
+
+    /**
+     * The first pass samples at least this many pixels, unless the regions have fewer at the
+     * quality.
+     */
+    static final int FIRST_PASS_SAMPLES = 4096;
+
+    /**
+     * The first pass samples at least this many bands of the region with the most, unless it has
+     * fewer.
+     */
+    static final int FIRST_PASS_BANDS = 8;
+
+    private final PixelSource source;
+    private final Sampling sampling;
+    private final boolean ignoreWhite;
+    private final double tolerance;
+    private final Histogram histogram;
+
+    // the regions, clipped to the source; empty ones are left out
+    private final int[] lefts;
+    private final int[] tops;
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] bands;
+    private final int numRegions;
+
+    private final int quality;
+    private final int numPasses;
+    private int pass;
+
+    private CMap previous;
+    private int stablePasses;
+
+    /**
+     * @param source
+     *            the pixels of the image
+     * @param regions
+     *            the regions to sample, in pixels of the source and clipped to it; null for the
+     *            whole image
+     * @param quality
+     *            the quality of the last pass; after it the histogram holds the same pixels as
+     *            after sampling at this quality
+     * @param sampling
+     *            how the pixels are picked, see {@link Sampling}
+     * @param ignoreWhite
+     *            if <code>true</code>, white pixels are ignored
+     * @param tolerance
+     *            the largest distance in RGB space a color of the palette may move from one pass to
+     *            the next for it to count as unchanged
+     * @param histogram
+     *            the histogram the sampled pixels are added to
+     * @throws IllegalArgumentException
+     *             if quality is &lt; 1
+     */
+    public AdaptiveSampler(
+            PixelSource source,
+            PixelRect[] regions,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            double tolerance,
+            Histogram histogram) {
+        if (quality < 1) {
+            throw new IllegalArgumentException("Specified quality should be greater then 0.");
+        }
+        this.source = source;
+        this.quality = quality;
+        this.sampling = sampling;
+        this.ignoreWhite = ignoreWhite;
+        this.tolerance = tolerance;
+        this.histogram = histogram;
+
+        if (regions == null) {
+            regions = new PixelRect[] {
+                    new PixelRect(0, 0, source.getWidth(), source.getHeight()) };
+        }
+        lefts = new int[regions.length];
+        tops = new int[regions.length];
+        widths = new int[regions.length];
+        heights = new int[regions.length];
+        bands = new int[regions.length];
+        int count = 0;
+        long area = 0;
+        int maxBands = 0;
+        for (PixelRect region : regions) {
+            int left = Math.max(0, region.left);
+            int top = Math.max(0, region.top);
+            int width = Math.min(source.getWidth(), region.right) - left;
+            int height = Math.min(source.getHeight(), region.bottom) - top;
+            if (width > 0 && height > 0) {
+                lefts[count] = left;
+                tops[count] = top;
+                widths[count] = width;
+                heights[count] = height;
+                bands[count] = PaletteExtractor.numBands(sampling, width, height, quality);
+                area += (long) width * height;
+                maxBands = Math.max(maxBands, bands[count]);
+                count++;
+            }
+        }
+        numRegions = count;
+
+        // halve the bands of the first pass while it keeps enough of them
+        long samples = area / quality;
+        int passes = 1;
+        while (passes < 31 && samples >> passes >= FIRST_PASS_SAMPLES
+                && maxBands >> passes >= FIRST_PASS_BANDS) {
+            passes++;
+        }
+        numPasses = passes;
+    }
+
+    /**
+     * @return <code>true</code> until the last pass has been sampled
+     */
+    public boolean hasNextPass() {
+        return pass < numPasses;
+    }
+
+    /**
+     * @return the number of passes sampled so far
+     */
+    public int getPass() {
+        return pass;
+    }
+
+    /**
+     * Adds the pixels of the next pass to the histogram.
+     *
+     * @param token
+     *            the token to poll for cancellation
+     * @throws IllegalStateException
+     *             if all passes have been sampled
+     */
+    public void samplePass(CancellationToken token) {
+        if (!hasNextPass()) {
+            throw new IllegalStateException("All passes have been sampled.");
+        }
+
+        // the first pass samples every stride-th band, the others the bands in between
+        int stride = 1 << (numPasses - 1 - pass);
+        int first = pass == 0 ? 0 : stride;
+        int step = pass == 0 ? stride : 2 * stride;
+        for (int k = 0; k < numRegions; k++) {
+            for (int band = first; band < bands[k]; band += step) {
+                PaletteExtractor.sampleBands(source, lefts[k], tops[k], widths[k], heights[k],
+                        band, band + 1, quality, sampling, ignoreWhite, histogram, token);
+            }
+        }
+        pass++;
+    }
+
+    /**
+     * Compares the color map quantized after the latest pass with the one of the pass before.
+     *
+     * @param cmap
+     *            the color map of the histogram as it is now, null if nothing has been sampled
+     * @return <code>true</code> once the palette has stayed within the tolerance for
+     *         {@link #STABLE_PASSES} passes in a row
+     */
+    public boolean hasConverged(CMap cmap) {
+        if (isClose(previous, cmap, tolerance)) {
+            stablePasses++;
+        } else {
+            stablePasses = 0;
+        }
+        previous = cmap;
+        return stablePasses >= STABLE_PASSES;
+    }
+
+    /**
+     * @return <code>true</code> if both color maps have colors and every color of each is within
+     *         the tolerance of a color of the other
+     */
+    private static boolean isClose(CMap previous, CMap current, double tolerance) {
+        if (previous == null || current == null) {
+            return false;
+        }
+        int[][] a = previous.palette();
+        int[][] b = current.palette();
+        return isCovered(a, b, tolerance) && isCovered(b, a, tolerance);
+    }
+
+    /**
+     * @return <code>true</code> if every color of the palette is within the tolerance of a color of
+     *         the other palette
+     */
+    private static boolean isCovered(int[][] palette, int[][] other, double tolerance) {
+        double maxSquared = tolerance * tolerance;
+        for (int[] color : palette) {
+            boolean covered = false;
+            for (int[] otherColor : other) {
+                int dr = color[0] - otherColor[0];
+                int dg = color[1] - otherColor[1];
+                int db = color[2] - otherColor[2];
+                if (dr * dr + dg * dg + db * db <= maxSquared) {
+                    covered = true;
+                    break;
+                }
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
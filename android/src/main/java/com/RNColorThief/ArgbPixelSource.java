@@ -0,0 +1,71 @@
+package com.RNColorThief;
+
+/**
+ * Pixel source over an int buffer of ARGB colors, row by row with the given stride, e.g. pixels
+ * decoded by ImageIO on a server or copied out of a bitmap.
+ */
+public class ArgbPixelSource implements PixelSource {
+
+    private final int[] argb;
+    private final int offset;
+    private final int stride;
+    private final int width;
+    private final int height;
+
+    /**
+     * @param argb
+     *            the colors, without gaps between the rows
+     * @throws IllegalArgumentException
+     *             if the buffer is too small for the given size
+     */
+    public ArgbPixelSource(int[] argb, int width, int height) {
+        this(argb, 0, width, width, height);
+    }
+
+    /**
+     * @param argb
+     *            the colors; row y of the image starts at offset + y * stride
+     * @throws IllegalArgumentException
+     *             if the size is negative, the stride is smaller than the width or the buffer is
+     *             too small
+     */
+    public ArgbPixelSource(int[] argb, int offset, int stride, int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Specified width and height should not be negative.");
+        }
+        if (stride < width) {
+            throw new IllegalArgumentException("Specified stride should not be smaller than width.");
+        }
+        if (offset < 0
+                || height > 0 && offset + (long) (height - 1) * stride + width > argb.length) {
+            throw new IllegalArgumentException("Specified buffer is too small.");
+        }
+        this.argb = argb;
+        this.offset = offset;
+        this.stride = stride;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(
+                    argb,
+                    this.offset + (y + row) * this.stride + x,
+                    pixels,
+                    offset + row * stride,
+                    width);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.RNColorThief;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets an extraction be stopped from another thread. The pipeline polls the token between steps
+ * and blocking work (e.g. a download) registers a callback which aborts it.
+ */
+public class CancellationToken {
+
+    /**
+     * Token for work which can't be cancelled.
+     */
+    public static final CancellationToken NONE = new CancellationToken(false);
+
+    private final boolean cancellable;
+    private final List<Runnable> callbacks = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    public CancellationToken() {
+        this(true);
+    }
+
+    private CancellationToken(boolean cancellable) {
+        this.cancellable = cancellable;
+    }
+
+    /**
+     * Marks the token as cancelled and runs the registered callbacks.
+     */
+    public void cancel() {
+        if (!cancellable) {
+            return;
+        }
+
+        List<Runnable> toRun;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            toRun = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+
+        for (Runnable callback : toRun) {
+            callback.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException
+     *             if the token has been cancelled
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Extraction was cancelled.");
+        }
+    }
+
+    /**
+     * Registers a callback run on cancellation; it runs right away if the token is already
+     * cancelled.
+     */
+    public void onCancel(Runnable callback) {
+        if (!cancellable) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!cancelled) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public synchronized void removeOnCancel(Runnable callback) {
+        callbacks.remove(callback);
+    }
+}
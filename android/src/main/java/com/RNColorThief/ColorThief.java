@@ -20,10 +20,15 @@
 package com.RNColorThief;
 
 import android.graphics.Bitmap;
-import java.util.Arrays;
+import android.graphics.Rect;
 
 import com.RNColorThief.MMCQ.CMap;
 
+/**
+ * Palette extraction from Android bitmaps; a thin layer over {@link PaletteExtractor}, which does
+ * the work on any {@link PixelSource}. Unless a {@link Sampling} is given, the pixels are sampled
+ * on a grid; {@link Sampling#LINEAR} gives the palettes of the original Color Thief.
+ */
 public class ColorThief {
 
     private static final int DEFAULT_QUALITY = 10;
@@ -158,68 +163,252 @@ public class ColorThief {
             int colorCount,
             int quality,
             boolean ignoreWhite) {
-        if (colorCount < 2 || colorCount > 256) {
-            throw new IllegalArgumentException("Specified colorCount must be between 2 and 256.");
-        }
-        if (quality < 1) {
-            throw new IllegalArgumentException("Specified quality should be greater then 0.");
-        }
-
-        int[][] pixelArray = getPixels(sourceImage, quality, ignoreWhite);
+        return getColorMap(sourceImage, colorCount, quality, ignoreWhite, CancellationToken.NONE);
+    }
 
-        // Send array to quantize function which clusters values using median cut algorithm
-        CMap cmap = MMCQ.quantize(pixelArray, colorCount);
-        return cmap;
+    /**
+     * Use the median cut algorithm to cluster similar colors; sampling and quantization stop with a
+     * {@link java.util.concurrent.CancellationException} once the token is cancelled.
+     * 
+     * @param sourceImage
+     *            the source image
+     * @param colorCount
+     *            the size of the palette; the number of colors returned (minimum 2, maximum 256)
+     * @param quality
+     *            1 is the highest quality settings. 10 is the default. There is a trade-off between
+     *            quality and speed. The bigger the number, the faster the palette generation but
+     *            the greater the likelihood that colors will be missed.
+     * @param ignoreWhite
+     *            if <code>true</code>, white pixels are ignored
+     * @param token
+     *            the token to poll for cancellation
+     * 
+     * @return the color map
+     * @throws IllegalArgumentException
+     *             if quality is &lt; 1
+     */
+    public static CMap getColorMap(
+            Bitmap sourceImage,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            CancellationToken token) {
+        return getColorMap(sourceImage, null, colorCount, quality, ignoreWhite, token);
     }
 
     /**
-     * Gets the image's pixels via Bitmap.getPixels(..).
+     * Use the median cut algorithm to cluster similar colors of the given regions of the image
+     * only; one palette is built from all of them together.
      * 
      * @param sourceImage
      *            the source image
+     * @param regions
+     *            the regions to sample, in pixels of the source image and clipped to it; null for
+     *            the whole image. Pixels in overlapping regions are sampled once per region.
+     * @param colorCount
+     *            the size of the palette; the number of colors returned (minimum 2, maximum 256)
      * @param quality
      *            1 is the highest quality settings. 10 is the default. There is a trade-off between
      *            quality and speed. The bigger the number, the faster the palette generation but
      *            the greater the likelihood that colors will be missed.
      * @param ignoreWhite
      *            if <code>true</code>, white pixels are ignored
+     * @param token
+     *            the token to poll for cancellation
      * 
-     * @return an array of pixels (each an RGB int array)
+     * @return the color map, or null if no pixels have been sampled
+     * @throws IllegalArgumentException
+     *             if quality is &lt; 1
      */
-    private static int[][] getPixels(
+    public static CMap getColorMap(
             Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
             int quality,
-            boolean ignoreWhite) {
-        int width = sourceImage.getWidth();
-        int height = sourceImage.getHeight();
+            boolean ignoreWhite,
+            CancellationToken token) {
+        return getColorMap(sourceImage, regions, colorCount, quality, ignoreWhite, 1, token);
+    }
+
+    /**
+     * Like {@link #getColorMap(Bitmap, Rect[], int, int, boolean, CancellationToken)}, but large
+     * images are sampled on several threads; the color map is the same.
+     * 
+     * @param parallelism
+     *            the maximum number of threads to sample with, 1 to sample on the calling thread
+     *            only
+     */
+    public static CMap getColorMap(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            int parallelism,
+            CancellationToken token) {
+        return getColorMap(sourceImage, regions, colorCount, quality, ignoreWhite,
+                MMCQ.DEFAULT_SIGBITS, parallelism, token);
+    }
 
-        int pixelCount = width * height;
+    /**
+     * Like {@link #getColorMap(Bitmap, Rect[], int, int, boolean, int, CancellationToken)}, with a
+     * histogram of the given resolution.
+     * 
+     * @param sigbits
+     *            the significant bits kept per color channel, between {@link MMCQ#MIN_SIGBITS} and
+     *            {@link MMCQ#MAX_SIGBITS}; 5 is the default. Fewer bits are faster, more tell close
+     *            colors apart.
+     * @throws IllegalArgumentException
+     *             if quality is &lt; 1 or sigbits is out of range
+     */
+    public static CMap getColorMap(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            int sigbits,
+            int parallelism,
+            CancellationToken token) {
+        return getColorMap(sourceImage, regions, colorCount, quality, Sampling.DEFAULT, ignoreWhite,
+                sigbits, parallelism, token);
+    }
 
-        // numRegardedPixels must be rounded up to avoid an ArrayIndexOutOfBoundsException if all
-        // pixels are good.
-        int numRegardedPixels = (pixelCount + quality - 1) / quality;
+    /**
+     * Like {@link #getColorMap(Bitmap, Rect[], int, int, boolean, int, int, CancellationToken)},
+     * with the given sampling.
+     * 
+     * @param sampling
+     *            how the pixels are picked, see {@link Sampling}
+     */
+    public static CMap getColorMap(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int sigbits,
+            int parallelism,
+            CancellationToken token) {
+        return PaletteExtractor.getColorMap(new BitmapPixelSource(sourceImage), toPixelRects(regions),
+                colorCount, quality, sampling, ignoreWhite, sigbits, parallelism, token);
+    }
 
-        int numUsedPixels = 0;
+    /**
+     * Like
+     * {@link #getColorMap(Bitmap, Rect[], int, int, Sampling, boolean, int, int, CancellationToken)},
+     * but the pixels are sampled in progressive passes until the palette stops changing, see
+     * {@link PaletteExtractor#getAdaptiveColorMap}; quality is the finest level sampled.
+     * @param tolerance
+     *            the largest distance in RGB space a color of the palette may move from one pass to
+     *            the next for it to count as converged
+     * @throws IllegalArgumentException
+     *             if quality is &lt; 1 or sigbits is out of range
+     */
+    public static CMap getAdaptiveColorMap(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int sigbits,
+            double tolerance,
+            CancellationToken token) {
+        return PaletteExtractor.getAdaptiveColorMap(new BitmapPixelSource(sourceImage),
+                toPixelRects(regions), colorCount, quality, sampling, ignoreWhite, sigbits,
+                tolerance, token);
+    }
 
-        int[][] res = new int[numRegardedPixels][];
-        int r, g, b;
+    /**
+     * Use the median cut algorithm to cluster similar colors of every region separately, every
+     * region has its own histogram; the color maps are the same as from calling
+     * {@link #getColorMap(Bitmap, Rect[], int, int, boolean, CancellationToken)} with each region
+     * on its own.
+     * 
+     * @param sourceImage
+     *            the source image
+     * @param regions
+     *            the regions, in pixels of the source image and clipped to it; they may overlap
+     * @param colorCount
+     *            the size of the palettes; the number of colors returned (minimum 2, maximum 256)
+     * @param quality
+     *            1 is the highest quality settings. 10 is the default. There is a trade-off between
+     *            quality and speed. The bigger the number, the faster the palette generation but
+     *            the greater the likelihood that colors will be missed.
+     * @param ignoreWhite
+     *            if <code>true</code>, white pixels are ignored
+     * @param token
+     *            the token to poll for cancellation
+     * 
+     * @return the color map of every region, null for regions without sampled pixels
+     * @throws IllegalArgumentException
+     *             if quality is &lt; 1 or there are more than {@link PaletteExtractor#MAX_REGIONS}
+     *             regions
+     */
+    public static CMap[] getColorMaps(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            CancellationToken token) {
+        return getColorMaps(sourceImage, regions, colorCount, quality, ignoreWhite, MMCQ.DEFAULT_SIGBITS, token);
+    }
 
-        int[] pixels = new int[pixelCount];
-        sourceImage.getPixels(pixels, 0, width, 0, 0, width, height);
+    /**
+     * Like {@link #getColorMaps(Bitmap, Rect[], int, int, boolean, CancellationToken)}, with
+     * histograms of the given resolution.
+     * 
+     * @param sigbits
+     *            the significant bits kept per color channel, between {@link MMCQ#MIN_SIGBITS} and
+     *            {@link MMCQ#MAX_SIGBITS}
+     */
+    public static CMap[] getColorMaps(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            int sigbits,
+            CancellationToken token) {
+        return getColorMaps(sourceImage, regions, colorCount, quality, Sampling.DEFAULT, ignoreWhite,
+                sigbits, token);
+    }
 
-        for (int i = 0; i < pixelCount; i += quality) {
-            int argb = pixels[i];
+    /**
+     * Like {@link #getColorMaps(Bitmap, Rect[], int, int, boolean, int, CancellationToken)}, with
+     * the given sampling.
+     * 
+     * @param sampling
+     *            how the pixels are picked, see {@link Sampling}
+     */
+    public static CMap[] getColorMaps(
+            Bitmap sourceImage,
+            Rect[] regions,
+            int colorCount,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int sigbits,
+            CancellationToken token) {
+        return PaletteExtractor.getColorMaps(new BitmapPixelSource(sourceImage), toPixelRects(regions),
+                colorCount, quality, sampling, ignoreWhite, sigbits, token);
+    }
 
-            r = (argb >> 16) & 0xFF;
-            g = (argb >> 8) & 0xFF;
-            b = (argb) & 0xFF;
-            if (!(ignoreWhite && r > 250 && g > 250 && b > 250)) {
-                res[numUsedPixels] = new int[] {r, g, b};
-                numUsedPixels++;
-            }
+    /**
+     * @return the rectangles as {@link PixelRect}s, null for null
+     */
+    static PixelRect[] toPixelRects(Rect[] rects) {
+        if (rects == null) {
+            return null;
         }
-
-        return Arrays.copyOfRange(res, 0, numUsedPixels);
+        PixelRect[] pixelRects = new PixelRect[rects.length];
+        for (int i = 0; i < rects.length; i++) {
+            pixelRects[i] = new PixelRect(rects[i].left, rects[i].top, rects[i].right, rects[i].bottom);
+        }
+        return pixelRects;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,418 @@
+package com.RNColorThief;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Palette cache which survives app restarts. All entries are kept in memory and written to one
+ * compact binary file in the background; the file is read once, memory-mapped, at startup.
+ *
+ * File layout (big-endian): magic, version, entry count, then per entry in least recently used
+ * order the key length, the UTF-8 key, the palette length, the packed RGB ints of the palette and
+ * the ETag and Last-Modified validators of the image as length and UTF-8 bytes (length 0 for
+ * none).
+ */
+public class DiskPaletteCache {
+
+    public static final int DEFAULT_MAX_SIZE = 2000;
+
+    private static final String FILE_NAME = "palettes.bin";
+    private static final int MAGIC = 0x524E4354; // "RNCT"
+    private static final int VERSION = 2;
+    private static final long FLUSH_DELAY_MS = 2000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File tempFile;
+
+    private static class Entry {
+        final int[] palette;
+        final ImageFetcher.Validators validators;
+
+        Entry(int[] palette, ImageFetcher.Validators validators) {
+            this.palette = palette;
+            this.validators = validators;
+        }
+    }
+
+    // access-ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final ScheduledExecutorService ioExecutor;
+
+    private int maxSize;
+    private boolean flushScheduled;
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates the cache and starts loading the file in the background.
+     *
+     * @param directory
+     *            the directory holding the cache file, created if needed
+     * @param maxSize
+     *            the maximum number of palettes kept, 0 disables the cache
+     * @throws IllegalArgumentException
+     *             if maxSize is &lt; 0
+     */
+    public DiskPaletteCache(File directory, int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Specified diskCacheSize should not be negative.");
+        }
+        this.file = new File(directory, FILE_NAME);
+        this.tempFile = new File(directory, FILE_NAME + ".tmp");
+        this.maxSize = maxSize;
+
+        this.ioExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "RNColorThief-disk-cache");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    load();
+                } finally {
+                    loaded.countDown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Looks the palette up, waiting for the file to be loaded if that hasn't happened yet.
+     *
+     * @return the cached palette as array of RGB arrays, or null if there is none
+     */
+    public int[][] get(String key) {
+        awaitLoaded();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            return RGBUtil.unpackRGBArray(entry.palette);
+        }
+    }
+
+    /**
+     * @return the validators of the image the cached palette was extracted from, or null
+     */
+    public ImageFetcher.Validators getValidators(String key) {
+        awaitLoaded();
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            return entry != null ? entry.validators : null;
+        }
+    }
+
+    public void put(String key, int[][] palette) {
+        put(key, palette, null);
+    }
+
+    public void put(String key, int[][] palette, ImageFetcher.Validators validators) {
+        awaitLoaded();
+
+        synchronized (this) {
+            if (maxSize == 0) {
+                return;
+            }
+
+            entries.put(key, new Entry(RGBUtil.packRGBArray(palette), validators));
+            trimToSize(maxSize);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Changes the maximum number of palettes, evicting the least recently used ones if needed.
+     *
+     * @throws IllegalArgumentException
+     *             if maxSize is &lt; 0
+     */
+    public void resize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Specified diskCacheSize should not be negative.");
+        }
+        awaitLoaded();
+
+        synchronized (this) {
+            this.maxSize = maxSize;
+            if (entries.size() > maxSize) {
+                trimToSize(maxSize);
+                scheduleFlush();
+            }
+        }
+    }
+
+    /**
+     * Like {@link #resize(int)}, but runs on the IO thread once the file is loaded instead of
+     * waiting for it on the calling thread.
+     *
+     * @param done
+     *            run on the IO thread after the cache is resized
+     * @throws IllegalArgumentException
+     *             if maxSize is &lt; 0
+     */
+    public void resize(final int maxSize, final Runnable done) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Specified diskCacheSize should not be negative.");
+        }
+        // the IO thread runs tasks in order, so this one runs after load()
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                resize(maxSize);
+                done.run();
+            }
+        });
+    }
+
+    public void clear() {
+        awaitLoaded();
+
+        synchronized (this) {
+            entries.clear();
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Like {@link #clear()}, but runs on the IO thread once the file is loaded instead of waiting
+     * for it on the calling thread.
+     *
+     * @param done
+     *            run on the IO thread after the cache is cleared
+     */
+    public void clear(final Runnable done) {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                clear();
+                done.run();
+            }
+        });
+    }
+
+    /**
+     * Writes pending changes right away, e.g. before the module goes away.
+     */
+    public void flush() {
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        });
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private void awaitLoaded() {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void trimToSize(int size) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > size && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled) {
+            return;
+        }
+        flushScheduled = true;
+        ioExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reads the cache file; a missing, outdated or corrupt file leaves the cache empty.
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        LinkedHashMap<String, Entry> loadedEntries = new LinkedHashMap<>();
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = input.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+                if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                    return;
+                }
+
+                int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                    buffer.get(key);
+
+                    int[] palette = new int[buffer.getShort() & 0xFFFF];
+                    buffer.asIntBuffer().get(palette);
+                    buffer.position(buffer.position() + palette.length * 4);
+
+                    String etag = readString(buffer);
+                    String lastModified = readString(buffer);
+                    ImageFetcher.Validators validators = etag != null || lastModified != null
+                            ? new ImageFetcher.Validators(etag, lastModified) : null;
+
+                    loadedEntries.put(new String(key, UTF_8), new Entry(palette, validators));
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException | BufferUnderflowException e) {
+            System.out.println(e);
+            return;
+        }
+
+        synchronized (this) {
+            entries.putAll(loadedEntries);
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the entries to a temporary file and renames it over the cache file, so
+     * a crash never leaves a half-written cache behind.
+     */
+    private void write() {
+        List<byte[]> keys;
+        List<Entry> values;
+        synchronized (this) {
+            flushScheduled = false;
+            keys = new ArrayList<>(entries.size());
+            values = new ArrayList<>(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] key = entry.getKey().getBytes(UTF_8);
+                if (key.length > 0xFFFF) {
+                    continue;
+                }
+                keys.add(key);
+                values.add(entry.getValue());
+            }
+        }
+
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            System.out.println("Could not create " + directory);
+            return;
+        }
+
+        try {
+            FileOutputStream fileOutput = new FileOutputStream(tempFile);
+            try {
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(fileOutput));
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    byte[] key = keys.get(i);
+                    output.writeShort(key.length);
+                    output.write(key);
+
+                    Entry entry = values.get(i);
+                    output.writeShort(entry.palette.length);
+                    for (int color : entry.palette) {
+                        output.writeInt(color);
+                    }
+
+                    writeString(output, entry.validators != null ? entry.validators.etag : null);
+                    writeString(output, entry.validators != null ? entry.validators.lastModified : null);
+                }
+                output.flush();
+                fileOutput.getFD().sync();
+            } finally {
+                fileOutput.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Could not rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            System.out.println(e);
+            tempFile.delete();
+        }
+    }
+
+    private static String readString(MappedByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value != null ? value.getBytes(UTF_8) : new byte[0];
+        if (bytes.length > 0xFFFF) {
+            bytes = new byte[0];
+        }
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+}
@@ -0,0 +1,194 @@
+package com.RNColorThief;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+
+/**
+ * Bounded worker pool that runs the download / decode / quantize pipeline off the React Native
+ * module thread.
+ */
+public class ExtractionExecutor {
+
+    public static final int DEFAULT_POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    public static final int DEFAULT_QUEUE_SIZE = 64;
+    public static final String DEFAULT_REJECTION_POLICY = "abort";
+
+    /**
+     * A unit of work which can be told that it will never run.
+     */
+    public interface Task extends Runnable {
+
+        /**
+         * Called instead of {@link #run()} when the task has been rejected or discarded by the pool.
+         */
+        void reject(RejectedExecutionException e);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final int queueSize;
+    private final String rejectionPolicy;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param poolSize
+     *            the number of worker threads
+     * @param queueSize
+     *            the maximum number of tasks waiting for a worker
+     * @param rejectionPolicy
+     *            what to do with a task once the queue is full: <code>"abort"</code> rejects the new
+     *            task, <code>"discardOldest"</code> rejects the longest waiting task and queues the
+     *            new one, <code>"callerRuns"</code> runs the new task on the submitting thread - for
+     *            the module that is the React Native native modules thread, which is then blocked
+     *            for the whole download, decode and quantize
+     * @throws IllegalArgumentException
+     *             if poolSize or queueSize is &lt; 1 or the rejection policy is unknown
+     */
+    public ExtractionExecutor(int poolSize, int queueSize, String rejectionPolicy) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("Specified poolSize should be greater then 0.");
+        }
+        if (queueSize < 1) {
+            throw new IllegalArgumentException("Specified queueSize should be greater then 0.");
+        }
+
+        this.queueSize = queueSize;
+        this.rejectionPolicy = rejectionPolicy;
+        this.executor = new ThreadPoolExecutor(
+                poolSize,
+                poolSize,
+                30,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new WorkerThreadFactory(),
+                createRejectionHandler(rejectionPolicy));
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public ExtractionExecutor() {
+        this(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_SIZE, DEFAULT_REJECTION_POLICY);
+    }
+
+    /**
+     * Queues the task; if the pool can't take it the task is rejected according to the policy.
+     */
+    public void execute(Task task) {
+        submittedCount.incrementAndGet();
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // thrown by the "abort" policy and by every policy after shutdown
+            rejectedCount.incrementAndGet();
+            task.reject(e);
+        }
+    }
+
+    /**
+     * Lets the tasks already queued finish but doesn't accept new ones.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public String getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * @return the number of tasks waiting for a worker
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the approximate number of workers currently running a task
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    private RejectedExecutionHandler createRejectionHandler(String policy) {
+        if ("abort".equals(policy)) {
+            return new ThreadPoolExecutor.AbortPolicy();
+        } else if ("callerRuns".equals(policy)) {
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    // the stock CallerRunsPolicy silently drops the task after shutdown
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Executor has been shut down.");
+                    }
+                    r.run();
+                }
+            };
+        } else if ("discardOldest".equals(policy)) {
+            return new RejectedExecutionHandler() {
+                @Override
+                public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                    if (executor.isShutdown()) {
+                        throw new RejectedExecutionException("Executor has been shut down.");
+                    }
+                    BlockingQueue<Runnable> queue = executor.getQueue();
+                    Runnable oldest = queue.poll();
+                    if (oldest instanceof Task) {
+                        rejectedCount.incrementAndGet();
+                        ((Task) oldest).reject(
+                                new RejectedExecutionException("Discarded to make room for a newer task."));
+                    }
+                    executor.execute(r);
+                }
+            };
+        }
+
+        throw new IllegalArgumentException(
+                "Specified rejectionPolicy must be one of abort, callerRuns or discardOldest.");
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "RNColorThief-worker-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.RNColorThief;
+
+import android.graphics.Rect;
+
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
+
+/**
+ * Parameters of a single palette / color extraction.
+ */
+public class ExtractionOptions {
+
+    public static final int DEFAULT_COLOR_COUNT = 5;
+    public static final int DEFAULT_QUALITY = 10;
+    public static final boolean DEFAULT_IGNORE_WHITE = true;
+
+    /**
+     * the size of the palette; the number of colors returned (minimum 2, maximum 256)
+     */
+    public int colorCount = DEFAULT_COLOR_COUNT;
+
+    /**
+     * 1 is the highest quality settings. 10 is the default. There is a trade-off between quality
+     * and speed. The bigger the number, the faster the palette generation but the greater the
+     * likelihood that colors will be missed.
+     */
+    public int quality = DEFAULT_QUALITY;
+
+    /**
+     * if <code>true</code>, white pixels are ignored
+     */
+    public boolean ignoreWhite = DEFAULT_IGNORE_WHITE;
+
+    /**
+     * Upper bound for the number of pixels sampled from the image, 0 for no limit. Large images are
+     * then decoded at a power-of-two fraction of their size instead of full resolution.
+     */
+    public int maxSamplePixels = 0;
+
+    /**
+     * if <code>true</code>, images are decoded as RGB_565 which halves their memory at the cost of
+     * color precision
+     */
+    public boolean preferRGB565 = false;
+
+    /**
+     * Regions of the image to extract the palette from, in pixels of the original image; null for
+     * the whole image. Only these regions are decoded and sampled, and one palette is built from
+     * all of them together.
+     */
+    public Rect[] regions = null;
+
+    /**
+     * Significant bits kept per color channel in the histogram (4 to 6): 4 is faster and enough
+     * for small palettes, 6 tells close colors apart, e.g. to match brand colors
+     */
+    public int sigbits = MMCQ.DEFAULT_SIGBITS;
+
+    /**
+     * Maximum number of threads sampling one large image, 1 to sample on the extraction thread
+     * only; doesn't affect the palette. Values from JS are clamped to 1 - number of cores
+     */
+    public int parallelism = 1;
+
+    /**
+     * How the pixels are picked, see {@link Sampling}: a jittered grid by default, linear for the
+     * palettes of the original Color Thief; null if JS passed an unknown sampling
+     */
+    public Sampling sampling = Sampling.DEFAULT;
+
+    /**
+     * if <code>true</code>, the pixels are sampled in progressive passes, each doubling the
+     * samples, until the palette stops changing; quality is then the finest stride sampled, i.e.
+     * the most work done for images whose palette doesn't settle. Regions decoded one by one are
+     * sampled at the quality as usual, and so are region layouts.
+     */
+    public boolean adaptive = false;
+
+    /**
+     * Largest distance in RGB space a color of the palette may move between two passes of the
+     * adaptive sampling for it to count as converged; smaller values sample more
+     */
+    public double adaptiveTolerance = AdaptiveSampler.DEFAULT_TOLERANCE;
+
+    /**
+     * if <code>true</code>, a cached palette of an http(s) image is only used after the server has
+     * confirmed, with a conditional request, that the image hasn't changed; doesn't affect the
+     * palette itself
+     */
+    public boolean revalidate = false;
+
+    /**
+     * if <code>true</code>, the timings and counts of the extraction are sent to JS as a trace
+     * event; doesn't affect the palette
+     */
+    public boolean trace = false;
+
+    public ExtractionOptions() {
+    }
+
+    public ExtractionOptions(int colorCount, int quality, boolean ignoreWhite) {
+        this.colorCount = colorCount;
+        this.quality = quality;
+        this.ignoreWhite = ignoreWhite;
+    }
+
+    /**
+     * Appends every parameter which affects the extracted palette to the cache key.
+     */
+    void appendCacheKey(StringBuilder key) {
+        key.append("|c=").append(colorCount)
+                .append("|q=").append(quality)
+                .append("|w=").append(ignoreWhite ? 1 : 0)
+                .append("|m=").append(maxSamplePixels)
+                .append("|565=").append(preferRGB565 ? 1 : 0);
+        if (sigbits != MMCQ.DEFAULT_SIGBITS) {
+            key.append("|s=").append(sigbits);
+        }
+        if (sampling != Sampling.LINEAR) {
+            // keys of linear sampling, which came first, are left as they were
+            key.append("|p=").append(sampling != null ? sampling.key : null);
+        }
+        if (adaptive) {
+            key.append("|a=").append(adaptiveTolerance);
+        }
+        if (regions != null) {
+            key.append("|r=");
+            for (Rect region : regions) {
+                key.append(region.left).append(',')
+                        .append(region.top).append(',')
+                        .append(region.right).append(',')
+                        .append(region.bottom).append(';');
+            }
+        }
+    }
+
+    /**
+     * Reads the options passed from JS; missing keys keep their defaults.
+     */
+    public static ExtractionOptions fromReadableMap(ReadableMap map) {
+        ExtractionOptions options = new ExtractionOptions();
+        if (map == null) {
+            return options;
+        }
+
+        if (map.hasKey("colorCount")) {
+            options.colorCount = map.getInt("colorCount");
+        }
+        if (map.hasKey("quality")) {
+            options.quality = map.getInt("quality");
+        }
+        if (map.hasKey("ignoreWhite")) {
+            options.ignoreWhite = map.getBoolean("ignoreWhite");
+        }
+        if (map.hasKey("maxSamplePixels")) {
+            options.maxSamplePixels = map.getInt("maxSamplePixels");
+        }
+        if (map.hasKey("preferRGB565")) {
+            options.preferRGB565 = map.getBoolean("preferRGB565");
+        }
+        if (map.hasKey("sigbits")) {
+            options.sigbits = map.getInt("sigbits");
+        }
+        if (map.hasKey("parallelism")) {
+            options.parallelism = Math.max(1,
+                    Math.min(map.getInt("parallelism"), ParallelSampler.MAX_PARALLELISM));
+        }
+        if (map.hasKey("sampling")) {
+            options.sampling = Sampling.fromKey(map.getString("sampling"));
+        }
+        if (map.hasKey("adaptive")) {
+            options.adaptive = map.getBoolean("adaptive");
+        }
+        if (map.hasKey("adaptiveTolerance")) {
+            options.adaptiveTolerance = map.getDouble("adaptiveTolerance");
+        }
+        if (map.hasKey("revalidate")) {
+            options.revalidate = map.getBoolean("revalidate");
+        }
+        if (map.hasKey("trace")) {
+            options.trace = map.getBoolean("trace");
+        }
+        if (map.hasKey("region") && !map.isNull("region")) {
+            if (map.getType("region") == ReadableType.Array) {
+                ReadableArray array = map.getArray("region");
+                options.regions = new Rect[array.size()];
+                for (int i = 0; i < array.size(); i++) {
+                    options.regions[i] = toRect(array.getMap(i));
+                }
+            } else {
+                options.regions = new Rect[] { toRect(map.getMap("region")) };
+            }
+        }
+        return options;
+    }
+
+    private static Rect toRect(ReadableMap map) {
+        return new Rect(map.getInt("left"), map.getInt("top"), map.getInt("right"), map.getInt("bottom"));
+    }
+}
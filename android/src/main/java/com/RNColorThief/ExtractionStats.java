@@ -0,0 +1,220 @@
+package com.RNColorThief;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters and latency histograms aggregated over all recorded extractions, per stage and per
+ * image host, e.g. to check latency objectives and find slow hosts.
+ */
+public class ExtractionStats {
+
+    /**
+     * Upper bounds of the latency histogram buckets, in milliseconds; a last bucket counts
+     * everything slower.
+     */
+    public static final long[] BUCKET_BOUNDS_MS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+
+    /**
+     * Number of hosts tracked; the least recently seen one is dropped for a new one.
+     */
+    public static final int MAX_HOSTS = 32;
+
+    private static final long NANOS_PER_MS = 1000000L;
+
+    /**
+     * Aggregated timings of one stage.
+     */
+    public static class StageStats {
+        public final long count;
+        public final long totalNanos;
+        public final long maxNanos;
+        /** Extractions per bucket of {@link #BUCKET_BOUNDS_MS}, plus the overflow bucket. */
+        public final long[] buckets;
+
+        StageStats(long count, long totalNanos, long maxNanos, long[] buckets) {
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        /**
+         * @param fraction
+         *            e.g. 0.99 for the 99th percentile
+         * @return an upper bound for the percentile in milliseconds, from the bucket it falls into
+         *         (but never above the maximum), or 0 if nothing has been recorded
+         */
+        public double percentileMs(double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            double maxMs = (double) maxNanos / NANOS_PER_MS;
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MS[i], maxMs);
+                }
+            }
+            return maxMs;
+        }
+    }
+
+    /**
+     * Aggregated downloads from one host.
+     */
+    public static class HostStats {
+        public final String host;
+        public long fetches;
+        public long failures;
+        public long bytes;
+        public long totalNanos;
+        public long maxNanos;
+
+        HostStats(String host) {
+            this.host = host;
+        }
+
+        HostStats copy() {
+            HostStats copy = new HostStats(host);
+            copy.fetches = fetches;
+            copy.failures = failures;
+            copy.bytes = bytes;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+    }
+
+    private static final int NUM_STAGES = ExtractionTrace.Stage.values().length;
+
+    private final long[] counts = new long[NUM_STAGES];
+    private final long[] totalNanos = new long[NUM_STAGES];
+    private final long[] maxNanos = new long[NUM_STAGES];
+    private final long[][] buckets = new long[NUM_STAGES][BUCKET_BOUNDS_MS.length + 1];
+
+    private final long[] outcomes = new long[ExtractionTrace.Outcome.values().length];
+
+    private long extractionCount;
+    private long bytesFetched;
+    private long decodedPixels;
+    private long sampledPixels;
+
+    // access-ordered, so the eldest entry is the least recently seen host
+    private final LinkedHashMap<String, HostStats> hosts = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Adds the finished extraction.
+     */
+    public synchronized void record(ExtractionTrace trace) {
+        extractionCount++;
+        if (trace.getOutcome() != null) {
+            outcomes[trace.getOutcome().ordinal()]++;
+        }
+        bytesFetched += trace.getBytesFetched();
+        decodedPixels += trace.getDecodedPixels();
+        sampledPixels += trace.getSampledPixels();
+
+        for (ExtractionTrace.Stage stage : ExtractionTrace.Stage.values()) {
+            if (trace.ran(stage)) {
+                add(stage.ordinal(), trace.getNanos(stage));
+            }
+        }
+
+        String host = trace.getHost();
+        if (host != null && trace.ran(ExtractionTrace.Stage.FETCH)) {
+            HostStats stats = hosts.get(host);
+            if (stats == null) {
+                stats = new HostStats(host);
+                hosts.put(host, stats);
+                trimHosts();
+            }
+            long nanos = trace.getNanos(ExtractionTrace.Stage.FETCH);
+            stats.fetches++;
+            if (trace.isFetchFailed()) {
+                stats.failures++;
+            }
+            stats.bytes += trace.getBytesFetched();
+            stats.totalNanos += nanos;
+            stats.maxNanos = Math.max(stats.maxNanos, nanos);
+        }
+    }
+
+    private void add(int stage, long nanos) {
+        counts[stage]++;
+        totalNanos[stage] += nanos;
+        maxNanos[stage] = Math.max(maxNanos[stage], nanos);
+
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && nanos > BUCKET_BOUNDS_MS[bucket] * NANOS_PER_MS) {
+            bucket++;
+        }
+        buckets[stage][bucket]++;
+    }
+
+    private void trimHosts() {
+        Iterator<Map.Entry<String, HostStats>> iterator = hosts.entrySet().iterator();
+        while (hosts.size() > MAX_HOSTS && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+    }
+
+    public synchronized StageStats getStageStats(ExtractionTrace.Stage stage) {
+        int i = stage.ordinal();
+        return new StageStats(counts[i], totalNanos[i], maxNanos[i], buckets[i].clone());
+    }
+
+    /**
+     * @return the hosts, least recently seen first
+     */
+    public synchronized List<HostStats> getHostStats() {
+        List<HostStats> result = new ArrayList<>(hosts.size());
+        for (HostStats stats : hosts.values()) {
+            result.add(stats.copy());
+        }
+        return result;
+    }
+
+    public synchronized long outcomeCount(ExtractionTrace.Outcome outcome) {
+        return outcomes[outcome.ordinal()];
+    }
+
+    public synchronized long extractionCount() {
+        return extractionCount;
+    }
+
+    public synchronized long bytesFetched() {
+        return bytesFetched;
+    }
+
+    public synchronized long decodedPixels() {
+        return decodedPixels;
+    }
+
+    public synchronized long sampledPixels() {
+        return sampledPixels;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < NUM_STAGES; i++) {
+            counts[i] = 0;
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+            Arrays.fill(buckets[i], 0);
+        }
+        Arrays.fill(outcomes, 0);
+        extractionCount = 0;
+        bytesFetched = 0;
+        decodedPixels = 0;
+        sampledPixels = 0;
+        hosts.clear();
+    }
+}
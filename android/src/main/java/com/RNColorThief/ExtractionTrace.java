@@ -0,0 +1,193 @@
+package com.RNColorThief;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Timings and counts of one palette extraction, stage by stage. Filled in by the thread running
+ * the extraction and recorded into {@link ExtractionStats} once it is done.
+ */
+public class ExtractionTrace {
+
+    public enum Stage {
+        /** Waiting for a worker of the pool. */
+        QUEUE("queue"),
+        /** Downloading the image, or asking the server whether it has changed. */
+        FETCH("fetch"),
+        /** Decoding the image, including reading its bounds. */
+        DECODE("decode"),
+        /** Reading the pixels into the histogram. */
+        SAMPLE("sample"),
+        /** Cutting the histogram into the palette. */
+        QUANTIZE("quantize"),
+        /** The whole extraction, from the worker picking it up until it is done. */
+        TOTAL("total");
+
+        public final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    public enum Outcome {
+        /** The palette has been extracted from the image. */
+        EXTRACTED("extracted"),
+        /** The palette came from the disk cache. */
+        CACHED("cached"),
+        /** The server confirmed that the image of the cached palette hasn't changed. */
+        NOT_MODIFIED("notModified"),
+        /** The image couldn't be retrieved or decoded. */
+        UNAVAILABLE("unavailable"),
+        FAILED("failed"),
+        CANCELLED("cancelled");
+
+        public final String key;
+
+        Outcome(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final int NUM_STAGES = Stage.values().length;
+
+    /**
+     * Longest head of a data URI kept to describe it, enough for the media type and encoding.
+     */
+    private static final int MAX_DATA_PREFIX = 48;
+
+    private final String source;
+    private final long[] nanos = new long[NUM_STAGES];
+    private final boolean[] ran = new boolean[NUM_STAGES];
+
+    private long bytesFetched;
+    private boolean fetchFailed;
+    private long decodedPixels;
+    private long sampledPixels;
+    private Outcome outcome;
+
+    /**
+     * @param source
+     *            the url of the image; a data URI is only kept as its description, see
+     *            {@link #describeSource(String)}
+     */
+    public ExtractionTrace(String source) {
+        this.source = describeSource(source);
+    }
+
+    /**
+     * Cuts a data URI down to its media type and length, so its payload, possibly megabytes of
+     * base64, is neither kept for the trace nor sent over the bridge with it.
+     *
+     * @return the description of a data URI, other sources as they are
+     */
+    static String describeSource(String source) {
+        if (source == null || !source.startsWith("data:")) {
+            return source;
+        }
+        String head = source.substring(0, Math.min(source.length(), MAX_DATA_PREFIX));
+        int comma = head.indexOf(',');
+        if (comma >= 0) {
+            head = head.substring(0, comma);
+        }
+        return head + ",... (" + source.length() + " chars)";
+    }
+
+    /**
+     * Adds the time since start, a {@link System#nanoTime()}, to the stage. Stages which run
+     * several times, e.g. decoding one region after the other, add up.
+     */
+    void end(Stage stage, long start) {
+        nanos[stage.ordinal()] += System.nanoTime() - start;
+        ran[stage.ordinal()] = true;
+    }
+
+    void fetched(long bytes) {
+        bytesFetched += bytes;
+    }
+
+    void fetchFailed() {
+        fetchFailed = true;
+    }
+
+    void decoded(long pixels) {
+        decodedPixels += pixels;
+    }
+
+    void sampled(long pixels) {
+        sampledPixels += pixels;
+    }
+
+    /**
+     * Sets the outcome, unless it has been set before.
+     */
+    void finish(Outcome outcome) {
+        if (this.outcome == null) {
+            this.outcome = outcome;
+        }
+    }
+
+    /**
+     * @return the url of the image, or the description of a data URI
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return the host of an http(s) source, null for other sources
+     */
+    public String getHost() {
+        if (source == null || !ImageFetcher.canFetch(source)) {
+            return null;
+        }
+        try {
+            return new URI(source).getHost();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the extraction went through the stage
+     */
+    public boolean ran(Stage stage) {
+        return ran[stage.ordinal()];
+    }
+
+    public long getNanos(Stage stage) {
+        return nanos[stage.ordinal()];
+    }
+
+    public long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    /**
+     * @return <code>true</code> if a download or revalidation request failed
+     */
+    public boolean isFetchFailed() {
+        return fetchFailed;
+    }
+
+    /**
+     * @return the number of pixels decoded, after downsampling
+     */
+    public long getDecodedPixels() {
+        return decodedPixels;
+    }
+
+    /**
+     * @return the number of pixels added to the histogram
+     */
+    public long getSampledPixels() {
+        return sampledPixels;
+    }
+
+    /**
+     * @return the outcome, or null while the extraction is running
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+}
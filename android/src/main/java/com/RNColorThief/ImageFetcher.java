@@ -0,0 +1,212 @@
+package com.RNColorThief;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Downloads images over HTTP(S) with connect and read timeouts, a maximum response size and
+ * conditional requests. Response bodies are always read to the end and closed, so the platform
+ * can put the connection back into its keep-alive pool.
+ */
+public class ImageFetcher {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 20000;
+    public static final int DEFAULT_MAX_RESPONSE_BYTES = 20 * 1024 * 1024;
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Cache validators of a response, sent back to the server to revalidate it.
+     */
+    public static class Validators {
+        public final String etag;
+        public final String lastModified;
+
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public boolean isEmpty() {
+            return etag == null && lastModified == null;
+        }
+    }
+
+    /**
+     * Outcome of a fetch: either the image data or "not modified" for a conditional request.
+     */
+    public static class Response {
+        public final boolean notModified;
+        public final byte[] body;
+        public final Validators validators;
+
+        Response(boolean notModified, byte[] body, Validators validators) {
+            this.notModified = notModified;
+            this.body = body;
+            this.validators = validators;
+        }
+    }
+
+    private final int connectTimeoutMs;
+    private final int readTimeoutMs;
+    private final int maxResponseBytes;
+
+    /**
+     * @param connectTimeoutMs
+     *            timeout for establishing the connection, in milliseconds
+     * @param readTimeoutMs
+     *            timeout for every read from the connection, in milliseconds
+     * @param maxResponseBytes
+     *            responses larger than this are refused
+     * @throws IllegalArgumentException
+     *             if a timeout is &lt; 0 or maxResponseBytes is &lt; 1
+     */
+    public ImageFetcher(int connectTimeoutMs, int readTimeoutMs, int maxResponseBytes) {
+        if (connectTimeoutMs < 0 || readTimeoutMs < 0) {
+            throw new IllegalArgumentException("Specified timeouts should not be negative.");
+        }
+        if (maxResponseBytes < 1) {
+            throw new IllegalArgumentException("Specified maxResponseBytes should be greater then 0.");
+        }
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.readTimeoutMs = readTimeoutMs;
+        this.maxResponseBytes = maxResponseBytes;
+    }
+
+    public ImageFetcher() {
+        this(DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_READ_TIMEOUT_MS, DEFAULT_MAX_RESPONSE_BYTES);
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public int getMaxResponseBytes() {
+        return maxResponseBytes;
+    }
+
+    /**
+     * @return <code>true</code> if the url can be fetched by this class
+     */
+    public static boolean canFetch(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    /**
+     * Fetches the url.
+     *
+     * @param url
+     *            the http or https url
+     * @param validators
+     *            validators of a previous response to make the request conditional, or null
+     * @param token
+     *            cancelling it aborts the request
+     *
+     * @return the response; {@link Response#notModified} is only ever set for conditional requests
+     * @throws IOException
+     *             if the request fails, times out, doesn't succeed (status other than 2xx or 304)
+     *             or the response is too large
+     * @throws java.util.concurrent.CancellationException
+     *             if the token has been cancelled
+     */
+    public Response fetch(String url, Validators validators, CancellationToken token) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        connection.setInstanceFollowRedirects(true);
+        connection.setRequestProperty("Accept", "image/*");
+        if (validators != null) {
+            if (validators.etag != null) {
+                connection.setRequestProperty("If-None-Match", validators.etag);
+            }
+            if (validators.lastModified != null) {
+                connection.setRequestProperty("If-Modified-Since", validators.lastModified);
+            }
+        }
+
+        Runnable abort = new Runnable() {
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+        };
+        token.onCancel(abort);
+
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED && validators != null) {
+                drain(connection.getInputStream());
+                return new Response(true, null, validators);
+            }
+            if (status < 200 || status >= 300) {
+                drain(connection.getErrorStream());
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+
+            long contentLength = connection.getHeaderFieldInt("Content-Length", -1);
+            if (contentLength > maxResponseBytes) {
+                // not worth reading to the end, give up the connection instead
+                connection.disconnect();
+                throw new IOException("Response of " + contentLength + " bytes is larger than "
+                        + maxResponseBytes + " bytes for " + url);
+            }
+
+            byte[] body = read(connection.getInputStream(), (int) contentLength, url, token);
+            Validators responseValidators = new Validators(
+                    connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"));
+            return new Response(false, body, responseValidators);
+        } catch (IOException e) {
+            // the request fails when it is aborted
+            token.throwIfCancelled();
+            throw e;
+        } finally {
+            token.removeOnCancel(abort);
+        }
+    }
+
+    private byte[] read(InputStream stream, int contentLength, String url, CancellationToken token)
+            throws IOException {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(
+                    contentLength > 0 ? contentLength : BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                token.throwIfCancelled();
+                if (output.size() + read > maxResponseBytes) {
+                    throw new IOException("Response is larger than " + maxResponseBytes + " bytes for " + url);
+                }
+                output.write(buffer, 0, read);
+            }
+            return output.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads the rest of the stream so the connection can be reused.
+     */
+    private static void drain(InputStream stream) throws IOException {
+        if (stream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (stream.read(buffer) != -1) {
+                // discard
+            }
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.RNColorThief;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import android.content.ContentResolver;
+import android.content.res.AssetManager;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.net.Uri;
+import android.util.Base64;
+import android.util.Base64InputStream;
+
+/**
+ * Encoded image data which can be read more than once, e.g. to decode the bounds first and the
+ * pixels afterwards.
+ */
+public abstract class ImageSource {
+
+    /**
+     * Opens a new stream over the encoded image; the caller closes it.
+     */
+    public abstract InputStream open() throws IOException;
+
+    /**
+     * @return the cache validators the image was served with, or null
+     */
+    public ImageFetcher.Validators getValidators() {
+        return null;
+    }
+
+    /**
+     * Decodes the image with the given options.
+     *
+     * @return the decoded image, or null if it could not be decoded (always null when only the
+     *         bounds are decoded)
+     */
+    public Bitmap decode(BitmapFactory.Options options) throws IOException {
+        InputStream stream = open();
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Creates a decoder for regions of the image.
+     *
+     * @return the decoder, or null if the image format doesn't support region decoding (only
+     *         JPEG, PNG and WebP do)
+     */
+    public BitmapRegionDecoder newRegionDecoder() throws IOException {
+        InputStream stream = open();
+        try {
+            return BitmapRegionDecoder.newInstance(stream, false);
+        } catch (IOException e) {
+            // unsupported format
+            return null;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Image which has been read into memory completely.
+     */
+    public static class Bytes extends ImageSource {
+        private final byte[] data;
+        private final ImageFetcher.Validators validators;
+
+        public Bytes(byte[] data) {
+            this(data, null);
+        }
+
+        public Bytes(byte[] data, ImageFetcher.Validators validators) {
+            this.data = data;
+            this.validators = validators;
+        }
+
+        @Override
+        public ImageFetcher.Validators getValidators() {
+            return validators;
+        }
+
+        @Override
+        public InputStream open() {
+            return new ByteArrayInputStream(data);
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+
+        @Override
+        public BitmapRegionDecoder newRegionDecoder() {
+            try {
+                return BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Image embedded in a base64 data uri. The payload is decoded while it is read, straight from
+     * the uri string, so no copy of the payload, encoded or decoded, is ever made.
+     */
+    public static class DataUri extends ImageSource {
+        private final String uri;
+        private final int payloadStart;
+
+        /**
+         * @throws IllegalArgumentException
+         *             if the uri has no payload
+         */
+        public DataUri(String uri) {
+            int comma = uri.indexOf(',');
+            if (comma == -1) {
+                throw new IllegalArgumentException("Data uri has no payload.");
+            }
+            this.uri = uri;
+            this.payloadStart = comma + 1;
+        }
+
+        @Override
+        public InputStream open() {
+            return new Base64InputStream(new StringInputStream(uri, payloadStart), Base64.DEFAULT);
+        }
+    }
+
+    /**
+     * Reads the chars of an (ASCII) string as bytes.
+     */
+    private static class StringInputStream extends InputStream {
+        private final String string;
+        private int position;
+
+        StringInputStream(String string, int start) {
+            this.string = string;
+            this.position = start;
+        }
+
+        @Override
+        public int read() {
+            return position < string.length() ? string.charAt(position++) & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int remaining = string.length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int n = Math.min(length, remaining);
+            for (int i = 0; i < n; i++) {
+                buffer[offset + i] = (byte) string.charAt(position + i);
+            }
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, string.length() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return string.length() - position;
+        }
+    }
+
+    /**
+     * Image file on the device, decoded straight from the file.
+     */
+    public static class LocalFile extends ImageSource {
+        private final File file;
+
+        public LocalFile(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return new BufferedInputStream(new FileInputStream(file));
+        }
+
+        @Override
+        public Bitmap decode(BitmapFactory.Options options) {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+
+        @Override
+        public BitmapRegionDecoder newRegionDecoder() {
+            try {
+                return BitmapRegionDecoder.newInstance(file.getPath(), false);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Image behind a content:// (or android.resource://) uri, e.g. from the gallery.
+     */
+    public static class Content extends ImageSource {
+        private final ContentResolver resolver;
+        private final Uri uri;
+
+        public Content(ContentResolver resolver, Uri uri) {
+            this.resolver = resolver;
+            this.uri = uri;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            InputStream stream = resolver.openInputStream(uri);
+            if (stream == null) {
+                throw new FileNotFoundException("Could not open " + uri);
+            }
+            return stream;
+        }
+    }
+
+    /**
+     * Image bundled in the assets of the app.
+     */
+    public static class Asset extends ImageSource {
+        private final AssetManager assets;
+        private final String name;
+
+        public Asset(AssetManager assets, String name) {
+            this.assets = assets;
+            this.name = name;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            return assets.open(name);
+        }
+    }
+
+    /**
+     * Image bundled as drawable or raw resource of the app, read without density scaling.
+     */
+    public static class Resource extends ImageSource {
+        private final Resources resources;
+        private final int id;
+
+        public Resource(Resources resources, int id) {
+            this.resources = resources;
+            this.id = id;
+        }
+
+        @Override
+        public InputStream open() {
+            return resources.openRawResource(id);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.RNColorThief;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Palette extractions in progress, by cache key, so requests for the same source and parameters
+ * made while the first one is still running share its result instead of starting their own. An
+ * extraction is cancelled once every request waiting for it has been cancelled.
+ */
+public class InFlightRequests {
+
+    /**
+     * Receives the outcome of an extraction.
+     */
+    public interface Listener {
+
+        /**
+         * @param palette
+         *            the palette as array of RGB arrays, or null if the image couldn't be retrieved
+         */
+        void onPalette(int[][] palette);
+
+        void onFailure(String code, String message, Throwable e);
+    }
+
+    public static final String E_CANCELLED = "E_CANCELLED";
+
+    private static class Extraction {
+        final List<Listener> listeners = new ArrayList<>(1);
+        final CancellationToken token = new CancellationToken();
+    }
+
+    private final HashMap<String, Extraction> pending = new HashMap<>();
+
+    private long coalescedCount;
+    private long cancelledCount;
+
+    /**
+     * Registers the listener for the key.
+     *
+     * @return the token of the new extraction if none is running for the key yet and the caller
+     *         has to start one, <code>null</code> if the listener has joined a running extraction
+     */
+    public synchronized CancellationToken attach(String key, Listener listener) {
+        Extraction extraction = pending.get(key);
+        if (extraction != null) {
+            extraction.listeners.add(listener);
+            coalescedCount++;
+            return null;
+        }
+
+        extraction = new Extraction();
+        extraction.listeners.add(listener);
+        pending.put(key, extraction);
+        return extraction.token;
+    }
+
+    /**
+     * Detaches the listener and fails it with {@link #E_CANCELLED}; the extraction itself is
+     * cancelled if no other listener is waiting for it. Does nothing if the listener isn't waiting
+     * (any more).
+     */
+    public void cancel(String key, Listener listener) {
+        CancellationToken token = null;
+        synchronized (this) {
+            Extraction extraction = pending.get(key);
+            if (extraction == null || !extraction.listeners.remove(listener)) {
+                return;
+            }
+            cancelledCount++;
+            if (extraction.listeners.isEmpty()) {
+                pending.remove(key);
+                token = extraction.token;
+            }
+        }
+
+        if (token != null) {
+            token.cancel();
+        }
+        listener.onFailure(E_CANCELLED, "Extraction was cancelled.", null);
+    }
+
+    public void complete(String key, CancellationToken token, int[][] palette) {
+        for (Listener listener : remove(key, token)) {
+            listener.onPalette(palette);
+        }
+    }
+
+    public void fail(String key, CancellationToken token, String code, String message, Throwable e) {
+        for (Listener listener : remove(key, token)) {
+            listener.onFailure(code, message, e);
+        }
+    }
+
+    /**
+     * @return the number of extractions currently running
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return the number of requests which joined an extraction started by an earlier request
+     */
+    public synchronized long coalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return the number of requests which have been cancelled while waiting
+     */
+    public synchronized long cancelledCount() {
+        return cancelledCount;
+    }
+
+    /**
+     * Removes the extraction, unless it has been cancelled (and maybe replaced by a new one) in
+     * the meantime.
+     */
+    private synchronized List<Listener> remove(String key, CancellationToken token) {
+        Extraction extraction = pending.get(key);
+        if (extraction == null || extraction.token != token) {
+            return new ArrayList<Listener>(0);
+        }
+        pending.remove(key);
+        return extraction.listeners;
+    }
+}
@@ -21,53 +21,60 @@ package com.RNColorThief;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 public class MMCQ {
 
-    private static final int SIGBITS = 5;
-    private static final int RSHIFT = 8 - SIGBITS;
-    private static final int MULT = 1 << RSHIFT;
-    private static final int HISTOSIZE = 1 << (3 * SIGBITS);
-    private static final int VBOX_LENGTH = 1 << SIGBITS;
+    /**
+     * Significant bits kept per color channel, which sets the resolution of the histogram: 4 bits
+     * give 4,096 cells, 5 bits 32,768 and 6 bits 262,144.
+     */
+    public static final int DEFAULT_SIGBITS = 5;
+    public static final int MIN_SIGBITS = 4;
+    public static final int MAX_SIGBITS = 6;
+
     private static final double FRACT_BY_POPULATION = 0.75;
     private static final int MAX_ITERATIONS = 1000;
 
     /**
-     * Get reduced-space color index for a pixel.
-     * 
-     * @param r
-     *            the red value
-     * @param g
-     *            the green value
-     * @param b
-     *            the blue value
-     * 
-     * @return the color index
+     * Frees the cumulative tables every thread keeps for quantizing, up to 7.7 MB per thread at 6
+     * significant bits, e.g. when the system runs low on memory. The next quantization of a
+     * thread allocates them again.
      */
-    static int getColorIndex(int r, int g, int b) {
-        return (r << (2 * SIGBITS)) + (g << SIGBITS) + b;
+    public static void trimMemory() {
+        Workspace.releaseTables();
     }
 
     /**
-     * 3D color space box.
+     * @throws IllegalArgumentException
+     *             if sigbits is not between {@link #MIN_SIGBITS} and {@link #MAX_SIGBITS}
      */
-    public static class VBox {
-        int r1;
-        int r2;
-        int g1;
-        int g2;
-        int b1;
-        int b2;
-
-        private final int[] histo;
-
-        private int[] _avg;
-        private Integer _volume;
-        private Integer _count;
+    static void checkSigbits(int sigbits) {
+        if (sigbits < MIN_SIGBITS || sigbits > MAX_SIGBITS) {
+            throw new IllegalArgumentException("Specified sigbits must be between "
+                    + MIN_SIGBITS + " and " + MAX_SIGBITS + ".");
+        }
+    }
 
-        public VBox(int r1, int r2, int g1, int g2, int b1, int b2, int[] histo) {
+    /**
+     * 3D color space box of a color map: its bounds in the reduced color space together with the
+     * number of pixels in it and their average color. The quantizer itself works on a
+     * {@link BoxStore} and only creates these for the boxes it ends up with.
+     */
+    public static class VBox {
+        final int r1;
+        final int r2;
+        final int g1;
+        final int g2;
+        final int b1;
+        final int b2;
+
+        private final int count;
+        private final int[] avg;
+        private final int rshift;
+
+        VBox(int r1, int r2, int g1, int g2, int b1, int b2, int count, int[] avg, int rshift) {
             this.r1 = r1;
             this.r2 = r2;
             this.g1 = g1;
@@ -75,7 +82,9 @@ public class MMCQ {
             this.b1 = b1;
             this.b2 = b2;
 
-            this.histo = histo;
+            this.count = count;
+            this.avg = avg;
+            this.rshift = rshift;
         }
 
         @Override
@@ -84,77 +93,22 @@ public class MMCQ {
                     + " / b2: " + b2;
         }
 
-        public int volume(boolean force) {
-            if (_volume == null || force) {
-                _volume = ((r2 - r1 + 1) * (g2 - g1 + 1) * (b2 - b1 + 1));
-            }
-
-            return _volume;
+        public int volume() {
+            return (r2 - r1 + 1) * (g2 - g1 + 1) * (b2 - b1 + 1);
         }
 
-        public int count(boolean force) {
-            if (_count == null || force) {
-                int npix = 0;
-                int i, j, k, index;
-
-                for (i = r1; i <= r2; i++) {
-                    for (j = g1; j <= g2; j++) {
-                        for (k = b1; k <= b2; k++) {
-                            index = getColorIndex(i, j, k);
-                            npix += histo[index];
-                        }
-                    }
-                }
-
-                _count = npix;
-            }
-
-            return _count;
+        public int count() {
+            return count;
         }
 
-        @Override
-        public VBox clone() {
-            return new VBox(r1, r2, g1, g2, b1, b2, histo);
-        }
-
-        public int[] avg(boolean force) {
-            if (_avg == null || force) {
-                int ntot = 0;
-
-                int rsum = 0;
-                int gsum = 0;
-                int bsum = 0;
-
-                int hval, i, j, k, histoindex;
-
-                for (i = r1; i <= r2; i++) {
-                    for (j = g1; j <= g2; j++) {
-                        for (k = b1; k <= b2; k++) {
-                            histoindex = getColorIndex(i, j, k);
-                            hval = histo[histoindex];
-                            ntot += hval;
-                            rsum += (hval * (i + 0.5) * MULT);
-                            gsum += (hval * (j + 0.5) * MULT);
-                            bsum += (hval * (k + 0.5) * MULT);
-                        }
-                    }
-                }
-
-                if (ntot > 0) {
-                    _avg = new int[] {~~(rsum / ntot), ~~(gsum / ntot), ~~(bsum / ntot)};
-                } else {
-                    _avg = new int[] {~~(MULT * (r1 + r2 + 1) / 2), ~~(MULT * (g1 + g2 + 1) / 2),
-                            ~~(MULT * (b1 + b2 + 1) / 2)};
-                }
-            }
-
-            return _avg;
+        public int[] avg() {
+            return avg;
         }
 
         public boolean contains(int[] pixel) {
-            int rval = pixel[0] >> RSHIFT;
-            int gval = pixel[1] >> RSHIFT;
-            int bval = pixel[2] >> RSHIFT;
+            int rval = pixel[0] >> rshift;
+            int gval = pixel[1] >> rshift;
+            int bval = pixel[2] >> rshift;
 
             return (rval >= r1 && rval <= r2 && gval >= g1 && gval <= g2 && bval >= b1
                     && bval <= b2);
@@ -177,7 +131,7 @@ public class MMCQ {
             int numVBoxes = vboxes.size();
             int[][] palette = new int[numVBoxes][];
             for (int i = 0; i < numVBoxes; i++) {
-                palette[i] = vboxes.get(i).avg(false);
+                palette[i] = vboxes.get(i).avg();
             }
             return palette;
         }
@@ -191,7 +145,7 @@ public class MMCQ {
             for (int i = 0; i < numVBoxes; i++) {
                 VBox vbox = vboxes.get(i);
                 if (vbox.contains(color)) {
-                    return vbox.avg(false);
+                    return vbox.avg();
                 }
             }
             return nearest(color);
@@ -204,7 +158,7 @@ public class MMCQ {
 
             int numVBoxes = vboxes.size();
             for (int i = 0; i < numVBoxes; i++) {
-                int[] vbColor = vboxes.get(i).avg(false);
+                int[] vbColor = vboxes.get(i).avg();
                 d2 = Math
                         .sqrt(
                                 Math.pow(color[0] - vbColor[0], 2)
@@ -221,40 +175,153 @@ public class MMCQ {
     }
 
     /**
-     * Histo (1-d array, giving the number of pixels in each quantized region of color space), or
-     * null on error.
+     * Histo (1-d array, giving the number of pixels in each quantized region of color space)
+     * together with the bounds of the colors added to it, built in a single pass over the pixels.
      */
-    private static int[] getHisto(int[][] pixels) {
-        int[] histo = new int[HISTOSIZE];
-        int index, rval, gval, bval;
-
-        int numPixels = pixels.length;
-        for (int i = 0; i < numPixels; i++) {
-            int[] pixel = pixels[i];
-            rval = pixel[0] >> RSHIFT;
-            gval = pixel[1] >> RSHIFT;
-            bval = pixel[2] >> RSHIFT;
-            index = getColorIndex(rval, gval, bval);
-            histo[index]++;
-        }
-        return histo;
-    }
+    public static class Histogram {
+        final int sigbits;
+        final int rshift;
+        final int mult;
+        final int vboxLength;
+        final int cumulativeLength;
+
+        final int[] histo;
+
+        // indices of the cells which aren't empty, so resetting costs as much as the cells touched
+        int[] touched = new int[256];
+        int numTouched;
+
+        /*
+         * Cumulative (summed-area) tables over the histogram, indexed by cumulativeIndex(r, g, b):
+         * the entry at (r, g, b) holds the sum over all cells with red < r, green < g and blue < b.
+         * counts sums the pixels, the moment tables sum pixels times the red / green / blue cell
+         * index. Built by buildCumulative() so any box can be summed with eight lookups; the tables
+         * usually belong to the workspace of the quantizing thread and are only valid while it
+         * quantizes.
+         */
+        int[] counts;
+        long[] momentR;
+        long[] momentG;
+        long[] momentB;
 
-    private static VBox vboxFromPixels(int[][] pixels, int[] histo) {
         int rmin = 1000000, rmax = 0;
         int gmin = 1000000, gmax = 0;
         int bmin = 1000000, bmax = 0;
 
-        int rval, gval, bval;
+        int numPixels;
 
-        // find min/max
-        int numPixels = pixels.length;
-        for (int i = 0; i < numPixels; i++) {
-            int[] pixel = pixels[i];
-            rval = pixel[0] >> RSHIFT;
-            gval = pixel[1] >> RSHIFT;
-            bval = pixel[2] >> RSHIFT;
+        private boolean pooled;
 
+        public Histogram() {
+            this(DEFAULT_SIGBITS);
+        }
+
+        /**
+         * @param sigbits
+         *            the significant bits kept per color channel
+         * @throws IllegalArgumentException
+         *             if sigbits is not between {@link MMCQ#MIN_SIGBITS} and {@link MMCQ#MAX_SIGBITS}
+         */
+        public Histogram(int sigbits) {
+            checkSigbits(sigbits);
+            this.sigbits = sigbits;
+            this.rshift = 8 - sigbits;
+            this.mult = 1 << rshift;
+            this.vboxLength = 1 << sigbits;
+            this.cumulativeLength = vboxLength + 1;
+            this.histo = new int[1 << (3 * sigbits)];
+        }
+
+        /**
+         * Gets an empty histogram from the pool of the calling thread, or creates one. Give it back
+         * with {@link #recycle()} once it has been quantized, so steady-state extraction doesn't
+         * allocate histograms.
+         *
+         * @throws IllegalArgumentException
+         *             if sigbits is not between {@link MMCQ#MIN_SIGBITS} and {@link MMCQ#MAX_SIGBITS}
+         */
+        public static Histogram obtain(int sigbits) {
+            Histogram histogram = Workspace.get(sigbits).takeHistogram();
+            if (histogram == null) {
+                histogram = new Histogram(sigbits);
+            }
+            histogram.pooled = false;
+            return histogram;
+        }
+
+        /**
+         * Empties the histogram and puts it into the pool of the calling thread. It must not be
+         * used afterwards; color maps quantized from it stay valid.
+         */
+        public void recycle() {
+            if (pooled) {
+                return;
+            }
+            reset();
+            pooled = Workspace.get(sigbits).putHistogram(this);
+        }
+
+        /**
+         * Empties the histogram, clearing only the cells which have been touched.
+         */
+        void reset() {
+            for (int i = 0; i < numTouched; i++) {
+                histo[touched[i]] = 0;
+            }
+            numTouched = 0;
+            numPixels = 0;
+            rmin = gmin = bmin = 1000000;
+            rmax = gmax = bmax = 0;
+            counts = null;
+            momentR = momentG = momentB = null;
+        }
+
+        /**
+         * Get reduced-space color index for a pixel.
+         * 
+         * @param r
+         *            the red value
+         * @param g
+         *            the green value
+         * @param b
+         *            the blue value
+         * 
+         * @return the color index
+         */
+        int getColorIndex(int r, int g, int b) {
+            return (r << (2 * sigbits)) + (g << sigbits) + b;
+        }
+
+        /**
+         * Get the index into the cumulative tables, which have one extra leading row per axis.
+         */
+        int cumulativeIndex(int r, int g, int b) {
+            return (r * cumulativeLength + g) * cumulativeLength + b;
+        }
+
+        /**
+         * Adds one pixel to the histogram.
+         * 
+         * @param r
+         *            the red value (0-255)
+         * @param g
+         *            the green value (0-255)
+         * @param b
+         *            the blue value (0-255)
+         */
+        public void add(int r, int g, int b) {
+            int rval = r >> rshift;
+            int gval = g >> rshift;
+            int bval = b >> rshift;
+
+            int index = getColorIndex(rval, gval, bval);
+            if (histo[index]++ == 0) {
+                touch(index);
+            }
+            numPixels++;
+
+            // The else-if is inherited from the original implementation: a value which lowers the
+            // minimum is never considered for the maximum. Kept so palettes stay identical.
             if (rval < rmin) {
                 rmin = rval;
             } else if (rval > rmax) {
@@ -274,115 +341,603 @@ public class MMCQ {
             }
         }
 
-        return new VBox(rmin, rmax, gmin, gmax, bmin, bmax, histo);
+        private void touch(int index) {
+            if (numTouched == touched.length) {
+                touched = Arrays.copyOf(touched, Math.min(histo.length, touched.length * 2));
+            }
+            touched[numTouched++] = index;
+        }
+
+        /**
+         * Adds the pixels of the other histogram, which have been sampled after the pixels of this
+         * one. The bounds come out exactly as if the pixels had been added one by one in that
+         * order: a pixel of the other histogram is left out of the maximum only if it lowers the
+         * minimum of both histograms up to it, so the other's own maximum counts (besides the
+         * maximum it found itself) whenever it isn't below the minimum of this histogram.
+         *
+         * @throws IllegalArgumentException
+         *             if the histograms have a different resolution
+         */
+        public void append(Histogram other) {
+            if (other.sigbits != sigbits) {
+                throw new IllegalArgumentException("Histograms must have the same sigbits.");
+            }
+            if (other.numPixels == 0) {
+                return;
+            }
+
+            int rtop = 0, gtop = 0, btop = 0;
+            for (int i = 0; i < other.numTouched; i++) {
+                int index = other.touched[i];
+                if (histo[index] == 0) {
+                    touch(index);
+                }
+                histo[index] += other.histo[index];
+
+                rtop = Math.max(rtop, index >> (2 * sigbits));
+                gtop = Math.max(gtop, (index >> sigbits) & (vboxLength - 1));
+                btop = Math.max(btop, index & (vboxLength - 1));
+            }
+
+            rmax = Math.max(rmax, rtop >= rmin ? Math.max(other.rmax, rtop) : other.rmax);
+            gmax = Math.max(gmax, gtop >= gmin ? Math.max(other.gmax, gtop) : other.gmax);
+            bmax = Math.max(bmax, btop >= bmin ? Math.max(other.bmax, btop) : other.bmax);
+            rmin = Math.min(rmin, other.rmin);
+            gmin = Math.min(gmin, other.gmin);
+            bmin = Math.min(bmin, other.bmin);
+
+            numPixels += other.numPixels;
+        }
+
+        /**
+         * @return the number of pixels added
+         */
+        public int size() {
+            return numPixels;
+        }
+
+        /**
+         * Builds the cumulative count and moment tables from the histogram.
+         */
+        void buildCumulative() {
+            Workspace workspace = Workspace.get(sigbits);
+            workspace.useCumulativeTables(this);
+
+            // running sums over green (rows so far) and blue (up to b) for the current red slice
+            int[] area = workspace.area;
+            long[] areaR = workspace.areaR;
+            long[] areaG = workspace.areaG;
+            long[] areaB = workspace.areaB;
+
+            for (int r = 1; r <= vboxLength; r++) {
+                Arrays.fill(area, 0);
+                Arrays.fill(areaR, 0);
+                Arrays.fill(areaG, 0);
+                Arrays.fill(areaB, 0);
+
+                for (int g = 1; g <= vboxLength; g++) {
+                    int line = 0;
+                    long lineR = 0, lineG = 0, lineB = 0;
+
+                    for (int b = 1; b <= vboxLength; b++) {
+                        int hval = histo[getColorIndex(r - 1, g - 1, b - 1)];
+                        line += hval;
+                        lineR += (long) hval * (r - 1);
+                        lineG += (long) hval * (g - 1);
+                        lineB += (long) hval * (b - 1);
+
+                        area[b] += line;
+                        areaR[b] += lineR;
+                        areaG[b] += lineG;
+                        areaB[b] += lineB;
+
+                        int index = cumulativeIndex(r, g, b);
+                        int previous = cumulativeIndex(r - 1, g, b);
+                        counts[index] = counts[previous] + area[b];
+                        momentR[index] = momentR[previous] + areaR[b];
+                        momentG[index] = momentG[previous] + areaG[b];
+                        momentB[index] = momentB[previous] + areaB[b];
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the number of pixels in the box (bounds inclusive)
+         */
+        int count(int r1, int r2, int g1, int g2, int b1, int b2) {
+            if (r2 < r1 || g2 < g1 || b2 < b1) {
+                return 0;
+            }
+            r2++;
+            g2++;
+            b2++;
+            return counts[cumulativeIndex(r2, g2, b2)]
+                    - counts[cumulativeIndex(r1, g2, b2)]
+                    - counts[cumulativeIndex(r2, g1, b2)]
+                    - counts[cumulativeIndex(r2, g2, b1)]
+                    + counts[cumulativeIndex(r1, g1, b2)]
+                    + counts[cumulativeIndex(r1, g2, b1)]
+                    + counts[cumulativeIndex(r2, g1, b1)]
+                    - counts[cumulativeIndex(r1, g1, b1)];
+        }
+
+        /**
+         * @return the average color of the pixels in the box (bounds inclusive), or the color at
+         *         the center of the box if it is empty
+         */
+        int[] average(int r1, int r2, int g1, int g2, int b1, int b2, int ntot) {
+            if (ntot > 0) {
+                // sum of hval * (i + 0.5) * mult over the box
+                long rsum = mult * moment(momentR, r1, r2, g1, g2, b1, b2)
+                        + (mult / 2) * (long) ntot;
+                long gsum = mult * moment(momentG, r1, r2, g1, g2, b1, b2)
+                        + (mult / 2) * (long) ntot;
+                long bsum = mult * moment(momentB, r1, r2, g1, g2, b1, b2)
+                        + (mult / 2) * (long) ntot;
+
+                return new int[] {(int) (rsum / ntot), (int) (gsum / ntot), (int) (bsum / ntot)};
+            }
+            return new int[] {~~(mult * (r1 + r2 + 1) / 2), ~~(mult * (g1 + g2 + 1) / 2),
+                    ~~(mult * (b1 + b2 + 1) / 2)};
+        }
+
+        /**
+         * @return the sum of the given moment table over the box (bounds inclusive)
+         */
+        long moment(long[] moments, int r1, int r2, int g1, int g2, int b1, int b2) {
+            if (r2 < r1 || g2 < g1 || b2 < b1) {
+                return 0;
+            }
+            r2++;
+            g2++;
+            b2++;
+            return moments[cumulativeIndex(r2, g2, b2)]
+                    - moments[cumulativeIndex(r1, g2, b2)]
+                    - moments[cumulativeIndex(r2, g1, b2)]
+                    - moments[cumulativeIndex(r2, g2, b1)]
+                    + moments[cumulativeIndex(r1, g1, b2)]
+                    + moments[cumulativeIndex(r1, g2, b1)]
+                    + moments[cumulativeIndex(r2, g1, b1)]
+                    - moments[cumulativeIndex(r1, g1, b1)];
+        }
     }
 
-    private static VBox[] medianCutApply(int[] histo, VBox vbox) {
-        if (vbox.count(false) == 0) {
-            return null;
+    /**
+     * Buffers of one thread for one histogram resolution, reused from one quantization to the
+     * next: the cumulative tables, the scratch arrays of the cuts, the box store and a pool of empty
+     * histograms.
+     * Entries of the cumulative tables with a zero index are never written, so the tables don't
+     * need to be cleared.
+     *
+     * A thread keeps what it has used until it ends, which the extraction workers do after
+     * 30 seconds idle but other threads calling the public API may never do. The cumulative tables
+     * are only allocated by the first quantization and take 4 bytes per entry for the counts and
+     * 3 x 8 for the moments: about 140 KB at 4 bits, 1 MB at 5 bits and 7.7 MB at 6 bits.
+     * {@link MMCQ#trimMemory()} frees them on all threads. The pool holds at most 512 KB of
+     * histograms, and always one histogram (1 MB at 6 bits).
+     */
+    private static final class Workspace {
+
+        // histograms kept per thread and resolution hold at most this many cells together
+        private static final int MAX_POOLED_CELLS = 1 << 17;
+
+        // the workspaces of all live threads, for trimMemory()
+        private static final Map<Workspace, Boolean> ALL =
+                Collections.synchronizedMap(new WeakHashMap<Workspace, Boolean>());
+
+        private static final ThreadLocal<Workspace[]> WORKSPACES = new ThreadLocal<Workspace[]>() {
+            @Override
+            protected Workspace[] initialValue() {
+                return new Workspace[MAX_SIGBITS - MIN_SIGBITS + 1];
+            }
+        };
+
+        private final int tableSize;
+        // written by trimMemory() from any thread
+        private volatile CumulativeTables tables;
+
+        final int[] area;
+        final long[] areaR;
+        final long[] areaG;
+        final long[] areaB;
+
+        final int[] partialsum;
+        final int[] lookaheadsum;
+
+        final BoxStore boxes = new BoxStore();
+
+        private final Histogram[] pool;
+        private int pooled;
+
+        private Workspace(int sigbits) {
+            int vboxLength = 1 << sigbits;
+            int cumulativeLength = vboxLength + 1;
+            tableSize = cumulativeLength * cumulativeLength * cumulativeLength;
+
+            area = new int[cumulativeLength];
+            areaR = new long[cumulativeLength];
+            areaG = new long[cumulativeLength];
+            areaB = new long[cumulativeLength];
+
+            partialsum = new int[vboxLength];
+            lookaheadsum = new int[vboxLength];
+
+            pool = new Histogram[Math.max(1, MAX_POOLED_CELLS >> (3 * sigbits))];
+        }
+
+        /**
+         * @return the workspace of the calling thread for the resolution
+         */
+        static Workspace get(int sigbits) {
+            checkSigbits(sigbits);
+            Workspace[] workspaces = WORKSPACES.get();
+            Workspace workspace = workspaces[sigbits - MIN_SIGBITS];
+            if (workspace == null) {
+                workspace = new Workspace(sigbits);
+                workspaces[sigbits - MIN_SIGBITS] = workspace;
+                ALL.put(workspace, Boolean.TRUE);
+            }
+            return workspace;
+        }
+
+        /**
+         * Drops the cumulative tables of all workspaces; a quantization running meanwhile keeps
+         * the ones it got.
+         */
+        static void releaseTables() {
+            synchronized (ALL) {
+                for (Workspace workspace : ALL.keySet()) {
+                    workspace.tables = null;
+                }
+            }
+        }
+
+        /**
+         * Gives the histogram cumulative tables to fill, allocating them on first use.
+         */
+        void useCumulativeTables(Histogram histogram) {
+            CumulativeTables current = tables;
+            if (current == null) {
+                current = new CumulativeTables(tableSize);
+                tables = current;
+            }
+            histogram.counts = current.counts;
+            histogram.momentR = current.momentR;
+            histogram.momentG = current.momentG;
+            histogram.momentB = current.momentB;
+        }
+
+        Histogram takeHistogram() {
+            if (pooled == 0) {
+                return null;
+            }
+            Histogram histogram = pool[--pooled];
+            pool[pooled] = null;
+            return histogram;
         }
 
+        /**
+         * @return <code>false</code> if the pool is full and the histogram has been dropped
+         */
+        boolean putHistogram(Histogram histogram) {
+            if (pooled == pool.length) {
+                return false;
+            }
+            pool[pooled++] = histogram;
+            return true;
+        }
+    }
+
+    private static final class CumulativeTables {
+        final int[] counts;
+        final long[] momentR;
+        final long[] momentG;
+        final long[] momentB;
+
+        CumulativeTables(int size) {
+            counts = new int[size];
+            momentR = new long[size];
+            momentG = new long[size];
+            momentB = new long[size];
+        }
+    }
+
+    /**
+     * The boxes of one quantization, kept as parallel arrays indexed by box id, and the work queue,
+     * a binary max-heap of box ids. A cut appends its halves to the store, so ids stay valid until
+     * the store is reset for the next quantization.
+     */
+    private static final class BoxStore {
+
+        static final int BY_COUNT = 0;
+        static final int BY_PRODUCT = 1;
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        int[] r1 = new int[INITIAL_CAPACITY];
+        int[] r2 = new int[INITIAL_CAPACITY];
+        int[] g1 = new int[INITIAL_CAPACITY];
+        int[] g2 = new int[INITIAL_CAPACITY];
+        int[] b1 = new int[INITIAL_CAPACITY];
+        int[] b2 = new int[INITIAL_CAPACITY];
+        int[] count = new int[INITIAL_CAPACITY];
+        int[] volume = new int[INITIAL_CAPACITY];
+
+        // position in the work queue, breaks ties between boxes which compare equal
+        int[] sequence = new int[INITIAL_CAPACITY];
+
+        int size;
+
+        /*
+         * Boxes which compare equal come out newest first, which is the order the former sorted
+         * list (stable sort, largest element taken from the end) produced.
+         */
+        private int[] heap = new int[INITIAL_CAPACITY];
+        private int heapSize;
+        private int order;
+        private int nextSequence;
+
+        private int[] sorted = new int[INITIAL_CAPACITY];
+
+        void reset(int order) {
+            size = 0;
+            heapSize = 0;
+            nextSequence = 0;
+            this.order = order;
+        }
+
+        /**
+         * Adds a box, counting its pixels in the cumulative tables of the histogram.
+         *
+         * @return the id of the box
+         */
+        int add(int r1, int r2, int g1, int g2, int b1, int b2, Histogram histo) {
+            if (size == count.length) {
+                grow();
+            }
+            int box = size++;
+            this.r1[box] = r1;
+            this.r2[box] = r2;
+            this.g1[box] = g1;
+            this.g2[box] = g2;
+            this.b1[box] = b1;
+            this.b2[box] = b2;
+            count[box] = histo.count(r1, r2, g1, g2, b1, b2);
+            volume[box] = (r2 - r1 + 1) * (g2 - g1 + 1) * (b2 - b1 + 1);
+            return box;
+        }
+
+        private void grow() {
+            int capacity = count.length * 2;
+            r1 = Arrays.copyOf(r1, capacity);
+            r2 = Arrays.copyOf(r2, capacity);
+            g1 = Arrays.copyOf(g1, capacity);
+            g2 = Arrays.copyOf(g2, capacity);
+            b1 = Arrays.copyOf(b1, capacity);
+            b2 = Arrays.copyOf(b2, capacity);
+            count = Arrays.copyOf(count, capacity);
+            volume = Arrays.copyOf(volume, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+        }
+
+        /**
+         * Puts the box into the work queue.
+         */
+        void push(int box) {
+            sequence[box] = nextSequence++;
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, heapSize * 2);
+            }
+
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(box, heap[parent])) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = box;
+        }
+
+        int peek() {
+            return heap[0];
+        }
+
+        /**
+         * Takes the largest box out of the work queue, which must not be empty.
+         */
+        int poll() {
+            int top = heap[0];
+            int last = heap[--heapSize];
+
+            int i = 0;
+            int half = heapSize >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && above(heap[child + 1], heap[child])) {
+                    child++;
+                }
+                if (!above(heap[child], last)) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        int queued() {
+            return heapSize;
+        }
+
+        /**
+         * Re-sorts the work queue by the product of pixel occupancy times the size in color space.
+         * Boxes with the same product keep their order by population, as they did with the former
+         * stable sort.
+         */
+        void reorderByProduct() {
+            int n = heapSize;
+            if (sorted.length < n) {
+                sorted = new int[heap.length];
+            }
+
+            // ascending by population, insertion order between equal boxes
+            for (int i = n - 1; i >= 0; i--) {
+                sorted[i] = poll();
+            }
+
+            // stable insertion sort, the queue holds few boxes
+            for (int i = 1; i < n; i++) {
+                int box = sorted[i];
+                int j = i - 1;
+                while (j >= 0 && compareProduct(sorted[j], box) > 0) {
+                    sorted[j + 1] = sorted[j];
+                    j--;
+                }
+                sorted[j + 1] = box;
+            }
+
+            order = BY_PRODUCT;
+            for (int i = 0; i < n; i++) {
+                push(sorted[i]);
+            }
+        }
+
+        /**
+         * @return the box as part of a color map, with the average color computed from the
+         *         cumulative tables of the histogram
+         */
+        VBox toVBox(int box, Histogram histo) {
+            return new VBox(r1[box], r2[box], g1[box], g2[box], b1[box], b2[box], count[box],
+                    histo.average(r1[box], r2[box], g1[box], g2[box], b1[box], b2[box], count[box]),
+                    histo.rshift);
+        }
+
+        /**
+         * @return <code>true</code> if box a comes out of the queue before box b
+         */
+        private boolean above(int a, int b) {
+            int result = order == BY_COUNT ? count[a] - count[b] : compareProduct(a, b);
+            return result != 0 ? result > 0 : sequence[a] > sequence[b];
+        }
+
+        private int compareProduct(int a, int b) {
+            // If count is 0 for both (or the same), sort by volume
+            if (count[a] == count[b]) {
+                return volume[a] - volume[b];
+            }
+
+            // Otherwise sort by products
+            return Long.compare((long) count[a] * volume[a], (long) count[b] * volume[b]);
+        }
+    }
+
+    private static Histogram getHisto(int[][] pixels, int sigbits) {
+        Histogram histogram = new Histogram(sigbits);
+
+        int numPixels = pixels.length;
+        for (int i = 0; i < numPixels; i++) {
+            int[] pixel = pixels[i];
+            histogram.add(pixel[0], pixel[1], pixel[2]);
+        }
+        return histogram;
+    }
+
+    /**
+     * Cuts the box at the median of its longest axis and queues both halves, or queues the box
+     * again if it holds just one pixel.
+     */
+    private static void medianCutApply(Histogram histo, BoxStore boxes, int box) {
+        int total = boxes.count[box];
+
         // only one pixel, no split
-        if (vbox.count(false) == 1) {
-            return new VBox[] {vbox.clone(), null};
+        if (total == 1) {
+            boxes.push(box);
+            return;
         }
 
-        int rw = vbox.r2 - vbox.r1 + 1;
-        int gw = vbox.g2 - vbox.g1 + 1;
-        int bw = vbox.b2 - vbox.b1 + 1;
+        int r1 = boxes.r1[box], r2 = boxes.r2[box];
+        int g1 = boxes.g1[box], g2 = boxes.g2[box];
+        int b1 = boxes.b1[box], b2 = boxes.b2[box];
+
+        int rw = r2 - r1 + 1;
+        int gw = g2 - g1 + 1;
+        int bw = b2 - b1 + 1;
         int maxw = Math.max(Math.max(rw, gw), bw);
 
-        // Find the partial sum arrays along the selected axis.
-        int total = 0;
-        int[] partialsum = new int[VBOX_LENGTH];
+        // Find the partial sum arrays along the selected axis; each entry is the population of the
+        // box cut off after that slice, read from the cumulative histogram.
+        Workspace workspace = Workspace.get(histo.sigbits);
+        int[] partialsum = workspace.partialsum;
         Arrays.fill(partialsum, -1); // -1 = not set / 0 = 0
-        int[] lookaheadsum = new int[VBOX_LENGTH];
+        int[] lookaheadsum = workspace.lookaheadsum;
         Arrays.fill(lookaheadsum, -1); // -1 = not set / 0 = 0
-        int i, j, k, sum, index;
+        int i;
 
         if (maxw == rw) {
-            for (i = vbox.r1; i <= vbox.r2; i++) {
-                sum = 0;
-                for (j = vbox.g1; j <= vbox.g2; j++) {
-                    for (k = vbox.b1; k <= vbox.b2; k++) {
-                        index = getColorIndex(i, j, k);
-                        sum += histo[index];
-                    }
-                }
-                total += sum;
-                partialsum[i] = total;
+            for (i = r1; i <= r2; i++) {
+                partialsum[i] = histo.count(r1, i, g1, g2, b1, b2);
             }
         } else if (maxw == gw) {
-            for (i = vbox.g1; i <= vbox.g2; i++) {
-                sum = 0;
-                for (j = vbox.r1; j <= vbox.r2; j++) {
-                    for (k = vbox.b1; k <= vbox.b2; k++) {
-                        index = getColorIndex(j, i, k);
-                        sum += histo[index];
-                    }
-                }
-                total += sum;
-                partialsum[i] = total;
+            for (i = g1; i <= g2; i++) {
+                partialsum[i] = histo.count(r1, r2, g1, i, b1, b2);
             }
         } else
         /* maxw == bw */
         {
-            for (i = vbox.b1; i <= vbox.b2; i++) {
-                sum = 0;
-                for (j = vbox.r1; j <= vbox.r2; j++) {
-                    for (k = vbox.g1; k <= vbox.g2; k++) {
-                        index = getColorIndex(j, k, i);
-                        sum += histo[index];
-                    }
-                }
-                total += sum;
-                partialsum[i] = total;
+            for (i = b1; i <= b2; i++) {
+                partialsum[i] = histo.count(r1, r2, g1, g2, b1, i);
             }
         }
 
-        for (i = 0; i < VBOX_LENGTH; i++) {
+        for (i = 0; i < histo.vboxLength; i++) {
             if (partialsum[i] != -1) {
                 lookaheadsum[i] = total - partialsum[i];
             }
         }
 
         // determine the cut planes
-        return maxw == rw ? doCut('r', vbox, partialsum, lookaheadsum, total)
-                : maxw == gw ? doCut('g', vbox, partialsum, lookaheadsum, total)
-                        : doCut('b', vbox, partialsum, lookaheadsum, total);
-    }
+        int d2 = maxw == rw ? doCut(r1, r2, partialsum, lookaheadsum, total)
+                : maxw == gw ? doCut(g1, g2, partialsum, lookaheadsum, total)
+                        : doCut(b1, b2, partialsum, lookaheadsum, total);
 
-    private static VBox[] doCut(
-            char color,
-            VBox vbox,
-            int[] partialsum,
-            int[] lookaheadsum,
-            int total) {
-        int vbox_dim1;
-        int vbox_dim2;
-
-        if (color == 'r') {
-            vbox_dim1 = vbox.r1;
-            vbox_dim2 = vbox.r2;
-        } else if (color == 'g') {
-            vbox_dim1 = vbox.g1;
-            vbox_dim2 = vbox.g2;
+        // set dimensions
+        int box1, box2;
+        if (maxw == rw) {
+            box1 = boxes.add(r1, d2, g1, g2, b1, b2, histo);
+            box2 = boxes.add(d2 + 1, r2, g1, g2, b1, b2, histo);
+        } else if (maxw == gw) {
+            box1 = boxes.add(r1, r2, g1, d2, b1, b2, histo);
+            box2 = boxes.add(r1, r2, d2 + 1, g2, b1, b2, histo);
         } else
-        /* color == 'b' */
+        /* maxw == bw */
         {
-            vbox_dim1 = vbox.b1;
-            vbox_dim2 = vbox.b2;
+            box1 = boxes.add(r1, r2, g1, g2, b1, d2, histo);
+            box2 = boxes.add(r1, r2, g1, g2, d2 + 1, b2, histo);
         }
 
+        boxes.push(box1);
+        boxes.push(box2);
+    }
+
+    /**
+     * @return the last slice of the lower half along the axis spanning vbox_dim1 to vbox_dim2
+     */
+    private static int doCut(
+            int vbox_dim1,
+            int vbox_dim2,
+            int[] partialsum,
+            int[] lookaheadsum,
+            int total) {
         int left, right;
-        VBox vbox1 = null, vbox2 = null;
         int d2, count2;
 
         for (int i = vbox_dim1; i <= vbox_dim2; i++) {
             if (partialsum[i] > total / 2) {
-                vbox1 = vbox.clone();
-                vbox2 = vbox.clone();
-
                 left = i - vbox_dim1;
                 right = vbox_dim2 - i;
 
@@ -402,21 +957,7 @@ public class MMCQ {
                     count2 = lookaheadsum[--d2];
                 }
 
-                // set dimensions
-                if (color == 'r') {
-                    vbox1.r2 = d2;
-                    vbox2.r1 = d2 + 1;
-                } else if (color == 'g') {
-                    vbox1.g2 = d2;
-                    vbox2.g1 = d2 + 1;
-                } else
-                /* color == 'b' */
-                {
-                    vbox1.b2 = d2;
-                    vbox2.b1 = d2 + 1;
-                }
-
-                return new VBox[] {vbox1, vbox2};
+                return d2;
             }
         }
 
@@ -424,39 +965,62 @@ public class MMCQ {
     }
 
     public static CMap quantize(int[][] pixels, int maxcolors) {
+        return quantize(pixels, maxcolors, DEFAULT_SIGBITS);
+    }
+
+    /**
+     * Like {@link #quantize(int[][], int)}, with a histogram of the given resolution: fewer
+     * significant bits per channel are cheaper to build and cut, more tell close colors apart.
+     *
+     * @throws IllegalArgumentException
+     *             if sigbits is not between {@link #MIN_SIGBITS} and {@link #MAX_SIGBITS}
+     */
+    public static CMap quantize(int[][] pixels, int maxcolors, int sigbits) {
+        return quantize(getHisto(pixels, sigbits), maxcolors);
+    }
+
+    public static CMap quantize(Histogram histogram, int maxcolors) {
+        return quantize(histogram, maxcolors, CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #quantize(Histogram, int)}, but stops with a
+     * {@link java.util.concurrent.CancellationException} at the next cut once the token is
+     * cancelled.
+     */
+    public static CMap quantize(Histogram histogram, int maxcolors, CancellationToken token) {
         // short-circuit
-        if (pixels.length == 0 || maxcolors < 2 || maxcolors > 256) {
+        if (histogram.size() == 0 || maxcolors < 2 || maxcolors > 256) {
             return null;
         }
 
-        int[] histo = getHisto(pixels);
+        histogram.buildCumulative();
 
         // get the beginning vbox from the colors
-        VBox vbox = vboxFromPixels(pixels, histo);
-        ArrayList<VBox> pq = new ArrayList<>();
-        pq.add(vbox);
+        BoxStore boxes = Workspace.get(histogram.sigbits).boxes;
+        boxes.reset(BoxStore.BY_COUNT);
+        boxes.push(boxes.add(histogram.rmin, histogram.rmax, histogram.gmin, histogram.gmax,
+                histogram.bmin, histogram.bmax, histogram));
 
         // Round up to have the same behaviour as in JavaScript
         int target = (int) Math.ceil(FRACT_BY_POPULATION * maxcolors);
 
         // first set of colors, sorted by population
-        iter(pq, COMPARATOR_COUNT, target, histo);
+        iter(boxes, target, histogram, token);
 
         // Re-sort by the product of pixel occupancy times the size in color space.
-        Collections.sort(pq, COMPARATOR_PRODUCT);
+        boxes.reorderByProduct();
 
         // next set - generate the median cuts using the (npix * vol) sorting.
-        if (maxcolors > pq.size()) {
-            iter(pq, COMPARATOR_PRODUCT, maxcolors, histo);
+        if (maxcolors > boxes.queued()) {
+            iter(boxes, maxcolors, histogram, token);
         }
 
-        // Reverse to put the highest elements first into the color map
-        Collections.reverse(pq);
-
-        // calculate the actual colors
+        // calculate the actual colors, highest elements first; the averages are computed now,
+        // while the cumulative tables are still those of this histogram
         CMap cmap = new CMap();
-        for (VBox vb : pq) {
-            cmap.push(vb);
+        while (boxes.queued() > 0) {
+            cmap.push(boxes.toVBox(boxes.poll(), histogram));
         }
 
         return cmap;
@@ -465,35 +1029,23 @@ public class MMCQ {
     /**
      * Inner function to do the iteration.
      */
-    private static void iter(List<VBox> lh, Comparator<VBox> comparator, int target, int[] histo) {
+    private static void iter(BoxStore boxes, int target, Histogram histo, CancellationToken token) {
         int niters = 0;
-        VBox vbox;
 
         while (niters < MAX_ITERATIONS) {
-            vbox = lh.get(lh.size() - 1);
-            if (vbox.count(false) == 0) {
-                Collections.sort(lh, comparator);
-                niters++;
-                continue;
-            }
-            lh.remove(lh.size() - 1);
-
-            // do the cut
-            VBox[] vboxes = medianCutApply(histo, vbox);
-            VBox vbox1 = vboxes[0];
-            VBox vbox2 = vboxes[1];
+            token.throwIfCancelled();
 
-            if (vbox1 == null) {
-                throw new RuntimeException("vbox1 not defined; shouldn't happen!");
+            int box = boxes.peek();
+            if (boxes.count[box] == 0) {
+                // the largest box is empty, so are all others; nothing left to cut
+                return;
             }
+            boxes.poll();
 
-            lh.add(vbox1);
-            if (vbox2 != null) {
-                lh.add(vbox2);
-            }
-            Collections.sort(lh, comparator);
+            // do the cut
+            medianCutApply(histo, boxes, box);
 
-            if (lh.size() >= target) {
+            if (boxes.queued() >= target) {
                 return;
             }
             if (niters++ > MAX_ITERATIONS) {
@@ -502,29 +1054,4 @@ public class MMCQ {
         }
     }
 
-    private static final Comparator<VBox> COMPARATOR_COUNT = new Comparator<VBox>() {
-        @Override
-        public int compare(VBox a, VBox b) {
-            return a.count(false) - b.count(false);
-        }
-    };
-
-    private static final Comparator<VBox> COMPARATOR_PRODUCT = new Comparator<VBox>() {
-        @Override
-        public int compare(VBox a, VBox b) {
-            int aCount = a.count(false);
-            int bCount = b.count(false);
-            int aVolume = a.volume(false);
-            int bVolume = b.volume(false);
-
-            // If count is 0 for both (or the same), sort by volume
-            if (aCount == bCount) {
-                return aVolume - bVolume;
-            }
-
-            // Otherwise sort by products
-            return Long.compare((long) aCount * aVolume, (long) bCount * bVolume);
-        }
-    };
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,197 @@
+package com.RNColorThief;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory LRU cache of extracted palettes, keyed by image source and extraction parameters.
+ * Palettes are kept packed (see {@link RGBUtil#packRGBArray(int[][])}), together with the cache
+ * validators of the image they were extracted from, if any.
+ */
+public class PaletteCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static class Entry {
+        final int[] palette;
+        final ImageFetcher.Validators validators;
+
+        Entry(int[] palette, ImageFetcher.Validators validators) {
+            this.palette = palette;
+            this.validators = validators;
+        }
+    }
+
+    // access-ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private int maxSize;
+
+    private long hitCount;
+    private long missCount;
+    private long putCount;
+    private long evictionCount;
+
+    /**
+     * @param maxSize
+     *            the maximum number of palettes kept, 0 disables the cache
+     * @throws IllegalArgumentException
+     *             if maxSize is &lt; 0
+     */
+    public PaletteCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Specified cacheSize should not be negative.");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the cached palette as array of RGB arrays, or null if there is none
+     */
+    public synchronized int[][] get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        return RGBUtil.unpackRGBArray(entry.palette);
+    }
+
+    /**
+     * Like {@link #get(String)}, but doesn't count as a hit or miss.
+     */
+    public synchronized int[][] peek(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? RGBUtil.unpackRGBArray(entry.palette) : null;
+    }
+
+    /**
+     * @return the validators of the image the cached palette was extracted from, or null
+     */
+    public synchronized ImageFetcher.Validators getValidators(String key) {
+        Entry entry = entries.get(key);
+        return entry != null ? entry.validators : null;
+    }
+
+    public void put(String key, int[][] palette) {
+        put(key, palette, null);
+    }
+
+    public synchronized void put(String key, int[][] palette, ImageFetcher.Validators validators) {
+        if (maxSize == 0) {
+            return;
+        }
+
+        putCount++;
+        entries.put(key, new Entry(RGBUtil.packRGBArray(palette), validators));
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Changes the maximum number of palettes, evicting the least recently used ones if needed.
+     *
+     * @throws IllegalArgumentException
+     *             if maxSize is &lt; 0
+     */
+    public synchronized void resize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Specified cacheSize should not be negative.");
+        }
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public synchronized long hitCount() {
+        return hitCount;
+    }
+
+    public synchronized long missCount() {
+        return missCount;
+    }
+
+    public synchronized long putCount() {
+        return putCount;
+    }
+
+    public synchronized long evictionCount() {
+        return evictionCount;
+    }
+
+    private void trimToSize(int size) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (entries.size() > size && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Builds the cache key for the image source and the parameters which affect the palette.
+     * Data URIs are represented by a SHA-1 hash of their payload rather than the payload itself.
+     */
+    public static String key(String imageUrl, ExtractionOptions options) {
+        StringBuilder key = new StringBuilder();
+        if (imageUrl.startsWith("data:")) {
+            key.append("data:sha1:").append(sha1(imageUrl));
+        } else {
+            key.append(imageUrl);
+        }
+        options.appendCacheKey(key);
+        return key.toString();
+    }
+
+    /**
+     * Hashes the UTF-16BE encoding of the string chunk by chunk, without copying it into one byte
+     * array.
+     */
+    private static String sha1(String value) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] chunk = new byte[8 * 1024];
+        int length = value.length();
+        int position = 0;
+        while (position < length) {
+            int n = 0;
+            // both bytes of every char (UTF-16BE), so different strings never give the same bytes
+            while (position < length && n < chunk.length - 1) {
+                char c = value.charAt(position++);
+                chunk[n++] = (byte) (c >> 8);
+                chunk[n++] = (byte) c;
+            }
+            digest.update(chunk, 0, n);
+        }
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,742 @@
+package com.RNColorThief;
+
+import com.RNColorThief.MMCQ.CMap;
+import com.RNColorThief.MMCQ.Histogram;
+
+/**
+ * The platform independent part of {@link ColorThief}: samples a {@link PixelSource} into
+ * histograms and quantizes them. Depends on nothing but the JVM, so the same code runs on Android,
+ * on a server and in the benchmarks.
+ */
+public class PaletteExtractor {
+
+    /**
+     * Number of pixels read from the source at once; whole rows are read, so a stripe is at least
+     * one row.
+     */
+    private static final int STRIPE_SIZE = 16 * 1024;
+
+    /**
+     * Most regions sampled at once; every region holds a histogram until all are sampled, 128 KB at
+     * 5 significant bits and 1 MB at 6.
+     */
+    public static final int MAX_REGIONS = 64;
+
+    /**
+     * Stripe buffer of every thread, reused from one call to the next.
+     */
+    private static final ThreadLocal<int[]> STRIPES = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[STRIPE_SIZE];
+        }
+    };
+
+    /**
+     * Like
+     * {@link #getColorMap(PixelSource, PixelRect[], int, int, Sampling, boolean, int, int, CancellationToken)}
+     * with the {@link Sampling#DEFAULT default sampling}.
+     */
+    public static CMap getColorMap(
+            PixelSource source,
+            PixelRect[] regions,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            int sigbits,
+            int parallelism,
+            CancellationToken token) {
+        return getColorMap(source, regions, colorCount, quality, Sampling.DEFAULT, ignoreWhite,
+                sigbits, parallelism, token);
+    }
+
+    /**
+     * Use the median cut algorithm to cluster similar colors of the given regions of the image
+     * only; one palette is built from all of them together.
+     * 
+     * @param source
+     *            the pixels of the image
+     * @param regions
+     *            the regions to sample, in pixels of the source and clipped to it; null for the
+     *            whole image. Pixels in overlapping regions are sampled once per region.
+     * @param colorCount
+     *            the size of the palette; the number of colors returned (minimum 2, maximum 256)
+     * @param quality
+     *            1 is the highest quality settings. 10 is the default. There is a trade-off between
+     *            quality and speed. The bigger the number, the faster the palette generation but
+     *            the greater the likelihood that colors will be missed.
+     * @param sampling
+     *            how the pixels are picked, see {@link Sampling}
+     * @param ignoreWhite
+     *            if <code>true</code>, white pixels are ignored
+     * @param sigbits
+     *            the significant bits kept per color channel, between {@link MMCQ#MIN_SIGBITS} and
+     *            {@link MMCQ#MAX_SIGBITS}; 5 is the default. Fewer bits are faster, more tell close
+     *            colors apart.
+     * @param parallelism
+     *            the maximum number of threads to sample with, 1 to sample on the calling thread
+     *            only
+     * @param token
+     *            the token to poll for cancellation
+     * 
+     * @return the color map, or null if no pixels have been sampled
+     * @throws IllegalArgumentException
+     *             if colorCount or sigbits is out of range or quality is &lt; 1
+     */
+    public static CMap getColorMap(
+            PixelSource source,
+            PixelRect[] regions,
+            int colorCount,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int sigbits,
+            int parallelism,
+            CancellationToken token) {
+        checkArguments(colorCount, quality);
+
+        Histogram histogram = Histogram.obtain(sigbits);
+        try {
+            if (regions == null) {
+                getPixels(source, null, quality, sampling, ignoreWhite, parallelism, histogram, token);
+            } else {
+                for (PixelRect region : regions) {
+                    getPixels(source, region, quality, sampling, ignoreWhite, parallelism, histogram, token);
+                }
+            }
+
+            // Send histogram to quantize function which clusters values using median cut algorithm
+            CMap cmap = MMCQ.quantize(histogram, colorCount, token);
+            return cmap;
+        } finally {
+            histogram.recycle();
+        }
+    }
+
+    /**
+     * Like
+     * {@link #getColorMap(PixelSource, PixelRect[], int, int, Sampling, boolean, int, int, CancellationToken)},
+     * but the pixels are sampled in progressive passes by an {@link AdaptiveSampler}, each doubling
+     * the samples, until the palette stops changing. Quality is the finest stride sampled: unless
+     * the palette converges before, all pixels of sampling at that quality end up in the histogram.
+     * 
+     * @param tolerance
+     *            the largest distance in RGB space a color of the palette may move from one pass to
+     *            the next for it to count as unchanged, see
+     *            {@link AdaptiveSampler#DEFAULT_TOLERANCE}
+     * 
+     * @return the color map, or null if no pixels have been sampled
+     * @throws IllegalArgumentException
+     *             if colorCount or sigbits is out of range or quality is &lt; 1
+     */
+    public static CMap getAdaptiveColorMap(
+            PixelSource source,
+            PixelRect[] regions,
+            int colorCount,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int sigbits,
+            double tolerance,
+            CancellationToken token) {
+        checkArguments(colorCount, quality);
+
+        Histogram histogram = Histogram.obtain(sigbits);
+        try {
+            AdaptiveSampler sampler = new AdaptiveSampler(source, regions, quality, sampling,
+                    ignoreWhite, tolerance, histogram);
+            CMap cmap = null;
+            while (sampler.hasNextPass()) {
+                sampler.samplePass(token);
+                cmap = MMCQ.quantize(histogram, colorCount, token);
+                if (sampler.hasConverged(cmap)) {
+                    break;
+                }
+            }
+            return cmap;
+        } finally {
+            histogram.recycle();
+        }
+    }
+
+    /**
+     * Like
+     * {@link #getColorMaps(PixelSource, PixelRect[], int, int, Sampling, boolean, int, CancellationToken)}
+     * with the {@link Sampling#DEFAULT default sampling}.
+     */
+    public static CMap[] getColorMaps(
+            PixelSource source,
+            PixelRect[] regions,
+            int colorCount,
+            int quality,
+            boolean ignoreWhite,
+            int sigbits,
+            CancellationToken token) {
+        return getColorMaps(source, regions, colorCount, quality, Sampling.DEFAULT, ignoreWhite,
+                sigbits, token);
+    }
+
+    /**
+     * Use the median cut algorithm to cluster similar colors of every region separately, every
+     * region has its own histogram; the color maps are the same as from calling
+     * {@link #getColorMap(PixelSource, PixelRect[], int, int, Sampling, boolean, int, int, CancellationToken)}
+     * with each region on its own. The image is sampled in one pass which reads every row at most
+     * once, however many regions cover it.
+     * 
+     * @param source
+     *            the pixels of the image
+     * @param regions
+     *            the regions, in pixels of the source and clipped to it; they may overlap
+     * @param colorCount
+     *            the size of the palettes; the number of colors returned (minimum 2, maximum 256)
+     * @param quality
+     *            1 is the highest quality settings. 10 is the default. There is a trade-off between
+     *            quality and speed. The bigger the number, the faster the palette generation but
+     *            the greater the likelihood that colors will be missed.
+     * @param sampling
+     *            how the pixels are picked, see {@link Sampling}
+     * @param ignoreWhite
+     *            if <code>true</code>, white pixels are ignored
+     * @param sigbits
+     *            the significant bits kept per color channel, between {@link MMCQ#MIN_SIGBITS} and
+     *            {@link MMCQ#MAX_SIGBITS}
+     * @param token
+     *            the token to poll for cancellation
+     * 
+     * @return the color map of every region, null for regions without sampled pixels
+     * @throws IllegalArgumentException
+     *             if colorCount or sigbits is out of range, quality is &lt; 1 or there are more
+     *             than {@link #MAX_REGIONS} regions
+     */
+    public static CMap[] getColorMaps(
+            PixelSource source,
+            PixelRect[] regions,
+            int colorCount,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int sigbits,
+            CancellationToken token) {
+        checkArguments(colorCount, quality);
+        if (regions.length > MAX_REGIONS) {
+            throw new IllegalArgumentException("Specified regions must be at most " + MAX_REGIONS + ".");
+        }
+
+        Histogram[] histograms = new Histogram[regions.length];
+        try {
+            for (int k = 0; k < regions.length; k++) {
+                histograms[k] = Histogram.obtain(sigbits);
+            }
+            getPixels(source, regions, quality, sampling, ignoreWhite, histograms, token);
+
+            CMap[] cmaps = new CMap[regions.length];
+            for (int k = 0; k < regions.length; k++) {
+                cmaps[k] = MMCQ.quantize(histograms[k], colorCount, token);
+            }
+            return cmaps;
+        } finally {
+            for (Histogram histogram : histograms) {
+                if (histogram != null) {
+                    histogram.recycle();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the stripe buffer of the calling thread, grown to at least the given size
+     */
+    private static int[] obtainStripe(int size) {
+        int[] stripe = STRIPES.get();
+        if (stripe.length < size) {
+            stripe = new int[size];
+            STRIPES.set(stripe);
+        }
+        return stripe;
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if colorCount is not between 2 and 256 or quality is &lt; 1
+     */
+    static void checkArguments(int colorCount, int quality) {
+        if (colorCount < 2 || colorCount > 256) {
+            throw new IllegalArgumentException("Specified colorCount must be between 2 and 256.");
+        }
+        if (quality < 1) {
+            throw new IllegalArgumentException("Specified quality should be greater then 0.");
+        }
+    }
+
+    /**
+     * Gets the pixels of the region via {@link PixelSource#getPixels} and adds every sampled pixel
+     * straight to the histogram. Only the columns of the region are read, and with grid sampling
+     * only the rows sampled.
+     * 
+     * @param source
+     *            the pixels of the image
+     * @param region
+     *            the region to sample, clipped to the image; null for the whole image
+     * @param quality
+     *            1 is the highest quality settings. 10 is the default. There is a trade-off between
+     *            quality and speed. The bigger the number, the faster the palette generation but
+     *            the greater the likelihood that colors will be missed.
+     * @param sampling
+     *            how the pixels are picked, see {@link Sampling}
+     * @param ignoreWhite
+     *            if <code>true</code>, white pixels are ignored
+     * @param parallelism
+     *            the number of threads to sample large regions with, see {@link ParallelSampler}
+     * @param histogram
+     *            the histogram the sampled pixels are added to
+     * @param token
+     *            the token to poll for cancellation, once per read
+     */
+    static void getPixels(
+            PixelSource source,
+            PixelRect region,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            int parallelism,
+            Histogram histogram,
+            CancellationToken token) {
+        int left = 0;
+        int top = 0;
+        int right = source.getWidth();
+        int bottom = source.getHeight();
+        if (region != null) {
+            left = Math.max(left, region.left);
+            top = Math.max(top, region.top);
+            right = Math.min(right, region.right);
+            bottom = Math.min(bottom, region.bottom);
+        }
+
+        int width = right - left;
+        int height = bottom - top;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        if (ParallelSampler.shouldSplit(width, height, quality, parallelism)) {
+            ParallelSampler.sample(source, left, top, width, height, quality, sampling, ignoreWhite, parallelism, histogram, token);
+        } else {
+            int bands = numBands(sampling, width, height, quality);
+            sampleBands(source, left, top, width, height, 0, bands, quality, sampling, ignoreWhite, histogram, token);
+        }
+    }
+
+    /**
+     * @return the number of bands the region is sampled in: its rows for linear sampling, the rows
+     *         of the grid for grid sampling
+     */
+    static int numBands(Sampling sampling, int width, int height, int quality) {
+        return sampling == Sampling.GRID ? gridRows(width, height, quality) : height;
+    }
+
+    /**
+     * Samples the bands fromBand (inclusive) to toBand (exclusive) of the region, see
+     * {@link #numBands}. Sampling consecutive band ranges one after the other gives the same
+     * samples, in the same order, as sampling all bands at once.
+     */
+    static void sampleBands(
+            PixelSource source,
+            int left,
+            int top,
+            int width,
+            int height,
+            int fromBand,
+            int toBand,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            Histogram histogram,
+            CancellationToken token) {
+        if (sampling == Sampling.GRID) {
+            sampleGrid(source, left, top, width, height, fromBand, toBand, quality, ignoreWhite, histogram, token);
+        } else {
+            sampleRows(source, left, top, width, fromBand, toBand, quality, ignoreWhite, histogram, token);
+        }
+    }
+
+    /**
+     * @return the number of grid columns: cells about as wide as high, at most one per pixel
+     */
+    private static int gridColumns(int width, int quality) {
+        long columns = Math.round(width / Math.sqrt(quality));
+        return (int) Math.max(1, Math.min(width, columns));
+    }
+
+    /**
+     * @return the number of grid rows, for about as many cells as sampling every quality-th pixel
+     *         takes samples, at most one per pixel
+     */
+    private static int gridRows(int width, int height, int quality) {
+        long rows = Math.round((double) width * height / quality / gridColumns(width, quality));
+        return (int) Math.max(1, Math.min(height, rows));
+    }
+
+    /**
+     * Samples the grid rows fromRow (inclusive) to toRow (exclusive) of the region: one pixel per
+     * cell, in an image row picked once per grid row and a column picked per cell, both jittered
+     * within the cell. Only the picked image rows are read, or stripes of rows when nearly all of
+     * them are picked.
+     */
+    static void sampleGrid(
+            PixelSource source,
+            int left,
+            int top,
+            int width,
+            int height,
+            int fromRow,
+            int toRow,
+            int quality,
+            boolean ignoreWhite,
+            Histogram histogram,
+            CancellationToken token) {
+        int columns = gridColumns(width, quality);
+        int rows = gridRows(width, height, quality);
+
+        // cells are cellWidth or cellWidth + 1 pixels wide, the wider ones spread evenly
+        int cellWidth = width / columns;
+        int extraWidth = width % columns;
+
+        // image rows up to the end of the last grid row to sample
+        int end = (int) ((long) toRow * height / rows);
+        int rowsPerStripe = 2L * rows > height ? Math.max(1, Math.min(end, STRIPE_SIZE / width)) : 1;
+        int[] stripe = obtainStripe(rowsPerStripe * width);
+        int stripeTop = 0;
+        int stripeRows = 0;
+
+        for (int row = fromRow; row < toRow; row++) {
+            int y = gridRowY(row, rows, height);
+
+            if (y >= stripeTop + stripeRows || y < stripeTop) {
+                token.throwIfCancelled();
+
+                stripeTop = y;
+                stripeRows = Math.min(rowsPerStripe, end - y);
+                source.getPixels(stripe, 0, width, left, top + y, width, stripeRows);
+            }
+
+            sampleGridRow(stripe, (y - stripeTop) * width, row, columns, cellWidth, extraWidth,
+                    ignoreWhite, histogram);
+        }
+    }
+
+    /**
+     * @return the image row, relative to the region, picked for the grid row: jittered within the
+     *         rows the grid row covers
+     */
+    private static int gridRowY(int row, int rows, int height) {
+        int y0 = (int) ((long) row * height / rows);
+        int y1 = (int) ((long) (row + 1) * height / rows);
+        return y0 + jitter(row, -1, y1 - y0);
+    }
+
+    /**
+     * Samples one pixel per cell of the grid row, from the image row starting at rowStart in the
+     * stripe.
+     */
+    private static void sampleGridRow(
+            int[] stripe,
+            int rowStart,
+            int row,
+            int columns,
+            int cellWidth,
+            int extraWidth,
+            boolean ignoreWhite,
+            Histogram histogram) {
+        int r, g, b;
+        int cellStart = rowStart;
+        int error = 0;
+        for (int column = 0; column < columns; column++) {
+            int size = cellWidth;
+            error += extraWidth;
+            if (error >= columns) {
+                error -= columns;
+                size++;
+            }
+            int argb = stripe[cellStart + jitter(row, column, size)];
+            cellStart += size;
+
+            r = (argb >> 16) & 0xFF;
+            g = (argb >> 8) & 0xFF;
+            b = (argb) & 0xFF;
+            if (!(ignoreWhite && r > 250 && g > 250 && b > 250)) {
+                histogram.add(r, g, b);
+            }
+        }
+    }
+
+    /**
+     * @return an offset between 0 (inclusive) and size (exclusive) which looks random but depends
+     *         only on the cell, so the same image always gives the same samples
+     */
+    private static int jitter(int row, int column, int size) {
+        if (size <= 1) {
+            return 0;
+        }
+        int h = row * 0x9E3779B1 + column * 0x85EBCA77;
+        h ^= h >>> 16;
+        h *= 0x7FEB352D;
+        h ^= h >>> 15;
+        h *= 0x846CA68B;
+        h ^= h >>> 16;
+        return (int) (((h & 0xFFFFFFFFL) * size) >>> 32);
+    }
+
+    /**
+     * Samples the rows fromRow (inclusive) to toRow (exclusive) of the region. The sample index is
+     * counted over the whole region, so sampling consecutive row ranges one after the other gives
+     * the same samples as sampling all rows at once.
+     */
+    static void sampleRows(
+            PixelSource source,
+            int left,
+            int top,
+            int width,
+            int fromRow,
+            int toRow,
+            int quality,
+            boolean ignoreWhite,
+            Histogram histogram,
+            CancellationToken token) {
+        int rowsPerStripe = Math.max(1, Math.min(toRow - fromRow, STRIPE_SIZE / width));
+        int[] stripe = obtainStripe(rowsPerStripe * width);
+        int r, g, b;
+
+        // index of the next sampled pixel, counted over the whole region
+        int i = (int) (((long) fromRow * width + quality - 1) / quality * quality);
+
+        for (int y = fromRow; y < toRow; y += rowsPerStripe) {
+            token.throwIfCancelled();
+
+            int rows = Math.min(rowsPerStripe, toRow - y);
+            source.getPixels(stripe, 0, width, left, top + y, width, rows);
+
+            int stripeStart = y * width;
+            int stripeEnd = stripeStart + rows * width;
+
+            for (; i < stripeEnd; i += quality) {
+                int argb = stripe[i - stripeStart];
+
+                r = (argb >> 16) & 0xFF;
+                g = (argb >> 8) & 0xFF;
+                b = (argb) & 0xFF;
+                if (!(ignoreWhite && r > 250 && g > 250 && b > 250)) {
+                    histogram.add(r, g, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like
+     * {@link #getPixels(PixelSource, PixelRect, int, Sampling, boolean, int, Histogram, CancellationToken)}
+     * for many regions at once, in one pass over the image: every row is read at most once, and
+     * each region samples its part of it into its own histogram, exactly as if it was sampled on
+     * its own.
+     */
+    static void getPixels(
+            PixelSource source,
+            PixelRect[] regions,
+            int quality,
+            Sampling sampling,
+            boolean ignoreWhite,
+            Histogram[] histograms,
+            CancellationToken token) {
+        if (sampling == Sampling.GRID) {
+            sampleGrids(source, regions, quality, ignoreWhite, histograms, token);
+        } else {
+            sampleRows(source, regions, quality, ignoreWhite, histograms, token);
+        }
+    }
+
+    /**
+     * Linear sampling of many regions: the rows covering any region are read a stripe at a time,
+     * and each region samples its part of the stripe, counting its sample index over its own area.
+     */
+    private static void sampleRows(
+            PixelSource source,
+            PixelRect[] regions,
+            int quality,
+            boolean ignoreWhite,
+            Histogram[] histograms,
+            CancellationToken token) {
+        int imageWidth = source.getWidth();
+        int imageHeight = source.getHeight();
+
+        // clipped regions and the box around all of them
+        int count = regions.length;
+        int[] lefts = new int[count];
+        int[] tops = new int[count];
+        int[] rights = new int[count];
+        int[] bottoms = new int[count];
+        int left = imageWidth;
+        int top = imageHeight;
+        int right = 0;
+        int bottom = 0;
+        for (int k = 0; k < count; k++) {
+            lefts[k] = Math.max(0, regions[k].left);
+            tops[k] = Math.max(0, regions[k].top);
+            rights[k] = Math.min(imageWidth, regions[k].right);
+            bottoms[k] = Math.min(imageHeight, regions[k].bottom);
+            if (lefts[k] < rights[k] && tops[k] < bottoms[k]) {
+                left = Math.min(left, lefts[k]);
+                top = Math.min(top, tops[k]);
+                right = Math.max(right, rights[k]);
+                bottom = Math.max(bottom, bottoms[k]);
+            }
+        }
+
+        int width = right - left;
+        int height = bottom - top;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        int rowsPerStripe = Math.max(1, Math.min(height, STRIPE_SIZE / width));
+        int[] stripe = obtainStripe(rowsPerStripe * width);
+        int r, g, b;
+
+        // position of the next sampled pixel of every region, relative to the region
+        int[] nextX = new int[count];
+        int[] nextY = new int[count];
+
+        for (int y = top; y < bottom; y += rowsPerStripe) {
+            token.throwIfCancelled();
+
+            int rows = Math.min(rowsPerStripe, bottom - y);
+            source.getPixels(stripe, 0, width, left, y, width, rows);
+
+            for (int k = 0; k < count; k++) {
+                int regionWidth = rights[k] - lefts[k];
+                if (regionWidth <= 0) {
+                    continue;
+                }
+                int end = Math.min(y + rows, bottoms[k]);
+                Histogram histogram = histograms[k];
+
+                int x = nextX[k];
+                int row = tops[k] + nextY[k];
+                while (row < end) {
+                    int argb = stripe[(row - y) * width + lefts[k] + x - left];
+
+                    r = (argb >> 16) & 0xFF;
+                    g = (argb >> 8) & 0xFF;
+                    b = (argb) & 0xFF;
+                    if (!(ignoreWhite && r > 250 && g > 250 && b > 250)) {
+                        histogram.add(r, g, b);
+                    }
+
+                    x += quality;
+                    while (x >= regionWidth) {
+                        x -= regionWidth;
+                        row++;
+                    }
+                }
+                nextX[k] = x;
+                nextY[k] = row - tops[k];
+            }
+        }
+    }
+
+    /**
+     * Grid sampling of many regions: the image rows picked by any region's grid are read in
+     * order, and every region whose grid picks the row samples its cells in it. Rows picked by
+     * several regions are read once; when nearly all rows of a region are picked, stripes of rows
+     * are read instead.
+     */
+    private static void sampleGrids(
+            PixelSource source,
+            PixelRect[] regions,
+            int quality,
+            boolean ignoreWhite,
+            Histogram[] histograms,
+            CancellationToken token) {
+        int imageWidth = source.getWidth();
+        int imageHeight = source.getHeight();
+
+        // clipped regions, their grids and the box around all of them
+        int count = regions.length;
+        int[] lefts = new int[count];
+        int[] tops = new int[count];
+        int[] heights = new int[count];
+        int[] columns = new int[count];
+        int[] rows = new int[count];
+        int[] cellWidths = new int[count];
+        int[] extraWidths = new int[count];
+        // next grid row of every region and the image row it picks, Integer.MAX_VALUE once done
+        int[] nextRow = new int[count];
+        int[] nextY = new int[count];
+        boolean dense = false;
+        int left = imageWidth;
+        int top = imageHeight;
+        int right = 0;
+        int bottom = 0;
+        for (int k = 0; k < count; k++) {
+            lefts[k] = Math.max(0, regions[k].left);
+            tops[k] = Math.max(0, regions[k].top);
+            int width = Math.min(imageWidth, regions[k].right) - lefts[k];
+            heights[k] = Math.min(imageHeight, regions[k].bottom) - tops[k];
+            if (width <= 0 || heights[k] <= 0) {
+                nextY[k] = Integer.MAX_VALUE;
+                continue;
+            }
+            columns[k] = gridColumns(width, quality);
+            rows[k] = gridRows(width, heights[k], quality);
+            cellWidths[k] = width / columns[k];
+            extraWidths[k] = width % columns[k];
+            nextY[k] = tops[k] + gridRowY(0, rows[k], heights[k]);
+            dense |= 2L * rows[k] > heights[k];
+
+            left = Math.min(left, lefts[k]);
+            top = Math.min(top, tops[k]);
+            right = Math.max(right, lefts[k] + width);
+            bottom = Math.max(bottom, tops[k] + heights[k]);
+        }
+
+        int width = right - left;
+        if (width <= 0 || bottom <= top) {
+            return;
+        }
+
+        int rowsPerStripe = dense ? Math.max(1, Math.min(bottom - top, STRIPE_SIZE / width)) : 1;
+        int[] stripe = obtainStripe(rowsPerStripe * width);
+        int stripeTop = 0;
+        int stripeRows = 0;
+
+        while (true) {
+            int y = Integer.MAX_VALUE;
+            for (int k = 0; k < count; k++) {
+                y = Math.min(y, nextY[k]);
+            }
+            if (y == Integer.MAX_VALUE) {
+                return;
+            }
+
+            if (y >= stripeTop + stripeRows || y < stripeTop) {
+                token.throwIfCancelled();
+
+                stripeTop = y;
+                stripeRows = Math.min(rowsPerStripe, bottom - y);
+                source.getPixels(stripe, 0, width, left, y, width, stripeRows);
+            }
+
+            int rowStart = (y - stripeTop) * width - left;
+            for (int k = 0; k < count; k++) {
+                if (nextY[k] != y) {
+                    continue;
+                }
+                int row = nextRow[k];
+                sampleGridRow(stripe, rowStart + lefts[k], row, columns[k], cellWidths[k],
+                        extraWidths[k], ignoreWhite, histograms[k]);
+                nextRow[k] = ++row;
+                nextY[k] = row < rows[k]
+                        ? tops[k] + gridRowY(row, rows[k], heights[k])
+                        : Integer.MAX_VALUE;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.RNColorThief;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.RNColorThief.MMCQ.Histogram;
+
+/**
+ * Samples large regions on several threads. The bands (see {@link PaletteExtractor#numBands}) are
+ * split into consecutive parts, every part is sampled into a histogram of its own (with its own
+ * bounds), and the parts are appended in order, which gives exactly the histogram of sampling on
+ * one thread.
+ *
+ * The calling thread samples the first part itself; the other parts run on a shared pool of
+ * daemon threads, one per core at most, which shrinks when idle. While all of them are busy, e.g.
+ * with the parts of other extractions, the calling thread samples the part itself instead.
+ */
+public class ParallelSampler {
+
+    /**
+     * Regions with fewer samples are not worth splitting; a part has at least this many.
+     */
+    static final int MIN_SAMPLES_PER_PART = 64 * 1024;
+
+    /**
+     * Most threads sampling one region, and the size of the shared pool.
+     */
+    static final int MAX_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+            MAX_PARALLELISM,
+            MAX_PARALLELISM,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new SamplerThreadFactory(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    static {
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return <code>true</code> if the region has enough samples for more than one part
+     */
+    static boolean shouldSplit(int width, int height, int quality, int parallelism) {
+        return parallelism > 1 && (long) width * height / quality >= 2L * MIN_SAMPLES_PER_PART;
+    }
+
+    /**
+     * Samples the region like {@link PaletteExtractor#sampleBands} does for all its bands, on up
+     * to parallelism threads (no more than {@link #MAX_PARALLELISM}), and appends the samples to
+     * the histogram.
+     */
+    static void sample(
+            final PixelSource source,
+            final int left,
+            final int top,
+            final int width,
+            final int height,
+            final int quality,
+            final Sampling sampling,
+            final boolean ignoreWhite,
+            int parallelism,
+            Histogram histogram,
+            final CancellationToken token) {
+        long samples = (long) width * height / quality;
+        int bands = PaletteExtractor.numBands(sampling, width, height, quality);
+        int threads = Math.min(parallelism, MAX_PARALLELISM);
+        int parts = (int) Math.max(1, Math.min(Math.min(threads, bands), samples / MIN_SAMPLES_PER_PART));
+
+        // the histograms come from the pool of the calling thread, which also gives them back
+        List<Future<Histogram>> futures = new ArrayList<>(parts - 1);
+        for (int part = 1; part < parts; part++) {
+            final int fromBand = (int) ((long) part * bands / parts);
+            final int toBand = (int) ((long) (part + 1) * bands / parts);
+            final Histogram partHistogram = Histogram.obtain(histogram.sigbits);
+            futures.add(pool.submit(new Callable<Histogram>() {
+                @Override
+                public Histogram call() {
+                    PaletteExtractor.sampleBands(source, left, top, width, height, fromBand, toBand, quality, sampling, ignoreWhite, partHistogram, token);
+                    return partHistogram;
+                }
+            }));
+        }
+
+        Histogram first = Histogram.obtain(histogram.sigbits);
+        boolean done = false;
+        try {
+            PaletteExtractor.sampleBands(source, left, top, width, height, 0, (int) ((long) bands / parts), quality, sampling, ignoreWhite, first, token);
+            histogram.append(first);
+            first.recycle();
+            for (Future<Histogram> future : futures) {
+                Histogram partHistogram = await(future);
+                histogram.append(partHistogram);
+                partHistogram.recycle();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                // don't leave parts running; their histograms may still be written to, so they
+                // are left to the garbage collector
+                for (Future<Histogram> future : futures) {
+                    future.cancel(false);
+                }
+            }
+        }
+    }
+
+    private static Histogram await(Future<Histogram> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class SamplerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread thread = new Thread(r, "RNColorThief-sampler-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            // Android maps this to Process.THREAD_PRIORITY_BACKGROUND
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
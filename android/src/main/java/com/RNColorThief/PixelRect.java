@@ -0,0 +1,24 @@
+package com.RNColorThief;
+
+/**
+ * Rectangle of pixels, left and top inclusive, right and bottom exclusive, like
+ * android.graphics.Rect but usable off Android.
+ */
+public final class PixelRect {
+    public final int left;
+    public final int top;
+    public final int right;
+    public final int bottom;
+
+    public PixelRect(int left, int top, int right, int bottom) {
+        this.left = left;
+        this.top = top;
+        this.right = right;
+        this.bottom = bottom;
+    }
+
+    @Override
+    public String toString() {
+        return "PixelRect(" + left + ", " + top + ", " + right + ", " + bottom + ")";
+    }
+}
@@ -0,0 +1,20 @@
+package com.RNColorThief;
+
+/**
+ * Pixels to extract colors from, independent of the platform: Android bitmaps are adapted by
+ * {@link BitmapPixelSource}, plain ARGB buffers by {@link ArgbPixelSource}. The sampling and the
+ * quantization only ever read pixels through this interface, so they run on any JVM.
+ */
+public interface PixelSource {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Copies the colors of a rectangle, as ARGB ints, into the array, like Bitmap.getPixels(..):
+     * row j of the rectangle starts at offset + j * stride. The rectangle always lies within the
+     * source. Large regions are sampled on several threads, which may call this concurrently.
+     */
+    void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+}
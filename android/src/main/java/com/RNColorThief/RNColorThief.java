@@ -19,40 +19,61 @@
 
 package com.RNColorThief;
 
-import java.net.URL;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.CancellationException;
 
+import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.util.Base64;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import com.RNColorThief.MMCQ.CMap;
+import com.RNColorThief.MMCQ.Histogram;
 
 public class RNColorThief {
 
-    public static int[] getColor(String imageUrl) {
-        Bitmap sourceImage = RNColorThief.retrieveImageFromUrl(imageUrl);
-        if (sourceImage == null) {
-            return null;
-        }
+    private static final PaletteCache paletteCache = new PaletteCache(PaletteCache.DEFAULT_MAX_SIZE);
+    private static final ExtractionStats extractionStats = new ExtractionStats();
+    private static DiskPaletteCache diskPaletteCache;
+    private static volatile ImageFetcher imageFetcher = new ImageFetcher();
+    private static volatile Context context;
 
-		return ColorThief.getColor(sourceImage);
+    private static final String ANDROID_ASSET_PREFIX = "file:///android_asset/";
+    private static final String ASSET_PREFIX = "asset:/";
+
+    public static int[] getColor(String imageUrl) {
+        return getColor(imageUrl, new ExtractionOptions());
     }
 
     public static int[] getColor(String imageUrl, int quality, boolean ignoreWhite) {
-        Bitmap sourceImage = RNColorThief.retrieveImageFromUrl(imageUrl);
-        if (sourceImage == null) {
+        return getColor(imageUrl, new ExtractionOptions(ExtractionOptions.DEFAULT_COLOR_COUNT, quality, ignoreWhite));
+    }
+
+    /**
+     * Gets the dominant color, the first color of the palette extracted with the given options.
+     */
+    public static int[] getColor(String imageUrl, ExtractionOptions options) {
+        int[][] palette = getPalette(imageUrl, options);
+        if (palette == null) {
             return null;
         }
 
-		return ColorThief.getColor(sourceImage, quality, ignoreWhite);
+        return palette[0];
     }
 
     public static int[][] getPalette(String imageUrl, int colorCount) {
-        Bitmap sourceImage = RNColorThief.retrieveImageFromUrl(imageUrl);
-        if (sourceImage == null) {
-            return null;
-        }
-
-		return ColorThief.getPalette(sourceImage, colorCount);
+        ExtractionOptions options = new ExtractionOptions();
+        options.colorCount = colorCount;
+        return getPalette(imageUrl, options);
     }
 
     public static int[][] getPalette(
@@ -60,45 +81,809 @@ public class RNColorThief {
             int colorCount,
             int quality,
             boolean ignoreWhite) {
+        return getPalette(imageUrl, new ExtractionOptions(colorCount, quality, ignoreWhite));
+    }
+
+    /**
+     * Gets the palette from the cache, or extracts it and caches it.
+     */
+    public static int[][] getPalette(String imageUrl, ExtractionOptions options) {
+        String cacheKey = PaletteCache.key(imageUrl, options);
+        int[][] palette = paletteCache.get(cacheKey);
+        if (palette != null) {
+            return palette;
+        }
+
+        return extractPalette(imageUrl, options, cacheKey, CancellationToken.NONE);
+    }
+
+    /**
+     * Extracts one palette per region of the layout, from a single decode of the image and a
+     * single pass over its pixels. The palettes aren't cached.
+     *
+     * @return the palettes in layout order, null for regions without sampled pixels; null if the
+     *         image couldn't be retrieved or decoded
+     */
+    public static int[][][] getRegionPalettes(String imageUrl, RegionLayout layout, ExtractionOptions options) {
+        return getRegionPalettes(imageUrl, layout, options, CancellationToken.NONE);
+    }
+
+    /**
+     * @throws java.util.concurrent.CancellationException
+     *             if the token is cancelled before the palettes have been extracted
+     */
+    static int[][][] getRegionPalettes(
+            String imageUrl,
+            RegionLayout layout,
+            ExtractionOptions options,
+            CancellationToken token) {
+        token.throwIfCancelled();
+        checkArguments(options);
+
+        ExtractionTrace trace = new ExtractionTrace(imageUrl);
+        long start = System.nanoTime();
+        try {
+            ImageSource source = retrieveImageFromUrl(imageUrl, token, trace);
+            if (source == null) {
+                trace.finish(ExtractionTrace.Outcome.UNAVAILABLE);
+                return null;
+            }
+            DecodedImage image = retrieveImage(source, options, token, trace);
+            if (image == null) {
+                trace.finish(ExtractionTrace.Outcome.UNAVAILABLE);
+                return null;
+            }
+
+            try {
+                Rect[] regions = layout.toRects(image.bitmap.getWidth(), image.bitmap.getHeight());
+                CMap[] cmaps = ColorThief.getColorMaps(
+                        image.bitmap,
+                        regions,
+                        options.colorCount,
+                        image.quality,
+                        options.sampling,
+                        options.ignoreWhite,
+                        options.sigbits,
+                        token);
+
+                int[][][] palettes = new int[cmaps.length][][];
+                for (int k = 0; k < cmaps.length; k++) {
+                    palettes[k] = cmaps[k] != null ? cmaps[k].palette() : null;
+                }
+                trace.finish(ExtractionTrace.Outcome.EXTRACTED);
+                return palettes;
+            } finally {
+                image.bitmap.recycle();
+            }
+        } catch (CancellationException e) {
+            trace.finish(ExtractionTrace.Outcome.CANCELLED);
+            throw e;
+        } finally {
+            trace.finish(ExtractionTrace.Outcome.FAILED);
+            trace.end(ExtractionTrace.Stage.TOTAL, start);
+            extractionStats.record(trace);
+        }
+    }
+
+    public static PaletteCache getPaletteCache() {
+        return paletteCache;
+    }
+
+    /**
+     * @return the timings and counts aggregated over all extractions
+     */
+    public static ExtractionStats getExtractionStats() {
+        return extractionStats;
+    }
+
+    /**
+     * Sets up the persistent palette cache in the given directory; later calls return the cache
+     * created first.
+     */
+    public static synchronized DiskPaletteCache initDiskPaletteCache(File directory) {
+        if (diskPaletteCache == null) {
+            diskPaletteCache = new DiskPaletteCache(directory, DiskPaletteCache.DEFAULT_MAX_SIZE);
+        }
+        return diskPaletteCache;
+    }
+
+    /**
+     * @return the persistent palette cache, or null if it hasn't been set up
+     */
+    public static synchronized DiskPaletteCache getDiskPaletteCache() {
+        return diskPaletteCache;
+    }
 
-		Bitmap sourceImage = RNColorThief.retrieveImageFromUrl(imageUrl);
-        if (sourceImage == null) {
+    /**
+     * Sets the context used to load content://, asset and resource images; without it only remote
+     * urls, files and data uris can be loaded.
+     */
+    public static void setContext(Context context) {
+        RNColorThief.context = context.getApplicationContext();
+    }
+
+    public static ImageFetcher getImageFetcher() {
+        return imageFetcher;
+    }
+
+    /**
+     * Replaces the fetcher used to download http(s) images, e.g. to change its timeouts.
+     */
+    public static void setImageFetcher(ImageFetcher fetcher) {
+        if (fetcher == null) {
+            throw new IllegalArgumentException("Specified fetcher should not be null.");
+        }
+        imageFetcher = fetcher;
+    }
+
+    /**
+     * Extracts the palette and stores it under the given key. A palette which is already cached,
+     * in memory or on disk, is returned as is, unless the options ask for revalidation: then the
+     * image is requested again, conditionally, and only extracted again if it has changed.
+     *
+     * @throws java.util.concurrent.CancellationException
+     *             if the token is cancelled before the palette has been extracted
+     */
+    static int[][] extractPalette(
+            String imageUrl,
+            ExtractionOptions options,
+            String cacheKey,
+            CancellationToken token) {
+        return extractPalette(imageUrl, options, cacheKey, token, new ExtractionTrace(imageUrl));
+    }
+
+    /**
+     * Like {@link #extractPalette(String, ExtractionOptions, String, CancellationToken)}, timing
+     * the stages into the trace, which is added to the {@link #getExtractionStats() stats} at the
+     * end.
+     */
+    static int[][] extractPalette(
+            String imageUrl,
+            ExtractionOptions options,
+            String cacheKey,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        long start = System.nanoTime();
+        try {
+            int[][] palette = extractOrRevalidate(imageUrl, options, cacheKey, token, trace);
+            trace.finish(palette != null
+                    ? ExtractionTrace.Outcome.EXTRACTED
+                    : ExtractionTrace.Outcome.UNAVAILABLE);
+            return palette;
+        } catch (CancellationException e) {
+            trace.finish(ExtractionTrace.Outcome.CANCELLED);
+            throw e;
+        } finally {
+            trace.finish(ExtractionTrace.Outcome.FAILED);
+            trace.end(ExtractionTrace.Stage.TOTAL, start);
+            extractionStats.record(trace);
+        }
+    }
+
+    private static int[][] extractOrRevalidate(
+            String imageUrl,
+            ExtractionOptions options,
+            String cacheKey,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        token.throwIfCancelled();
+
+        DiskPaletteCache diskCache = getDiskPaletteCache();
+        int[][] cached = paletteCache.peek(cacheKey);
+        ImageFetcher.Validators validators = paletteCache.getValidators(cacheKey);
+        if (cached == null && diskCache != null) {
+            cached = diskCache.get(cacheKey);
+            validators = diskCache.getValidators(cacheKey);
+        }
+
+        boolean revalidate = cached != null
+                && validators != null
+                && options.revalidate
+                && ImageFetcher.canFetch(imageUrl);
+        if (cached != null && !revalidate) {
+            paletteCache.put(cacheKey, cached, validators);
+            trace.finish(ExtractionTrace.Outcome.CACHED);
+            return cached;
+        }
+
+        ImageSource source;
+        if (revalidate) {
+            ImageFetcher.Response response;
+            long start = System.nanoTime();
+            try {
+                response = imageFetcher.fetch(imageUrl, validators, token);
+            } catch (IOException e) {
+                // keep using what we have until the server can be asked again
+                System.out.println(e);
+                trace.fetchFailed();
+                trace.finish(ExtractionTrace.Outcome.CACHED);
+                return cached;
+            } finally {
+                trace.end(ExtractionTrace.Stage.FETCH, start);
+            }
+            if (response.notModified) {
+                paletteCache.put(cacheKey, cached, validators);
+                trace.finish(ExtractionTrace.Outcome.NOT_MODIFIED);
+                return cached;
+            }
+            trace.fetched(response.body.length);
+            source = new ImageSource.Bytes(response.body, response.validators);
+        } else {
+            source = retrieveImageFromUrl(imageUrl, token, trace);
+        }
+        if (source == null) {
             return null;
         }
 
-		return ColorThief.getPalette(sourceImage, colorCount, quality, ignoreWhite);
+        int[][] palette = extractPalette(source, options, token, trace);
+        if (palette != null) {
+            validators = source.getValidators();
+            if (validators != null && validators.isEmpty()) {
+                validators = null;
+            }
+            paletteCache.put(cacheKey, palette, validators);
+            if (diskCache != null) {
+                diskCache.put(cacheKey, palette, validators);
+            }
+        }
+        return palette;
+    }
+
+    private static int[][] extractPalette(
+            ImageSource source,
+            ExtractionOptions options,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        if (options.regions != null) {
+            try {
+                return extractRegionPalette(source, options, token, trace);
+            } catch (IOException e) {
+                System.out.println(e);
+                return null;
+            }
+        }
+
+        checkArguments(options);
+        DecodedImage image = RNColorThief.retrieveImage(source, options, token, trace);
+        if (image == null) {
+            return null;
+        }
+
+        try {
+            return getPalette(image.bitmap, null, image.quality, options, token, trace);
+        } finally {
+            image.bitmap.recycle();
+        }
+    }
+
+    /**
+     * Samples the regions of the bitmap, or all of it for null, and quantizes the samples.
+     */
+    private static int[][] getPalette(
+            Bitmap bitmap,
+            Rect[] regions,
+            int quality,
+            ExtractionOptions options,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        Histogram histogram = Histogram.obtain(options.sigbits);
+        try {
+            if (options.adaptive) {
+                return getAdaptivePalette(bitmap, regions, quality, options, histogram, token, trace);
+            }
+            if (regions == null) {
+                sample(bitmap, null, quality, options, histogram, token, trace);
+            } else {
+                for (Rect region : regions) {
+                    sample(bitmap, region, quality, options, histogram, token, trace);
+                }
+            }
+            return quantize(histogram, options, token, trace);
+        } finally {
+            histogram.recycle();
+        }
     }
 
     /**
-     * Retrieve image source from remote url.
+     * Samples the bitmap pass by pass with an {@link AdaptiveSampler}, quantizing after every
+     * pass, until the palette has converged or all passes are done.
+     */
+    private static int[][] getAdaptivePalette(
+            Bitmap bitmap,
+            Rect[] regions,
+            int quality,
+            ExtractionOptions options,
+            Histogram histogram,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        AdaptiveSampler sampler = new AdaptiveSampler(
+                new BitmapPixelSource(bitmap),
+                ColorThief.toPixelRects(regions),
+                quality,
+                options.sampling,
+                options.ignoreWhite,
+                options.adaptiveTolerance,
+                histogram);
+        CMap cmap = null;
+        while (sampler.hasNextPass()) {
+            long start = System.nanoTime();
+            int numPixels = histogram.size();
+            try {
+                sampler.samplePass(token);
+            } finally {
+                trace.sampled(histogram.size() - numPixels);
+                trace.end(ExtractionTrace.Stage.SAMPLE, start);
+            }
+
+            start = System.nanoTime();
+            try {
+                cmap = MMCQ.quantize(histogram, options.colorCount, token);
+            } finally {
+                trace.end(ExtractionTrace.Stage.QUANTIZE, start);
+            }
+            if (sampler.hasConverged(cmap)) {
+                break;
+            }
+        }
+        return cmap != null ? cmap.palette() : null;
+    }
+
+    private static void sample(
+            Bitmap bitmap,
+            Rect region,
+            int quality,
+            ExtractionOptions options,
+            Histogram histogram,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        long start = System.nanoTime();
+        int numPixels = histogram.size();
+        try {
+            PaletteExtractor.getPixels(
+                    new BitmapPixelSource(bitmap),
+                    region != null
+                            ? new PixelRect(region.left, region.top, region.right, region.bottom)
+                            : null,
+                    quality,
+                    options.sampling,
+                    options.ignoreWhite,
+                    options.parallelism,
+                    histogram,
+                    token);
+        } finally {
+            trace.sampled(histogram.size() - numPixels);
+            trace.end(ExtractionTrace.Stage.SAMPLE, start);
+        }
+    }
+
+    private static int[][] quantize(
+            Histogram histogram,
+            ExtractionOptions options,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        long start = System.nanoTime();
+        try {
+            CMap cmap = MMCQ.quantize(histogram, options.colorCount, token);
+            return cmap != null ? cmap.palette() : null;
+        } finally {
+            trace.end(ExtractionTrace.Stage.QUANTIZE, start);
+        }
+    }
+
+    /**
+     * Extracts one palette from the regions of the options. Each region is decoded on its own with
+     * a {@link BitmapRegionDecoder}, downsampled to its share of the sample pixel budget, and
+     * sampled into one histogram. Images the region decoder can't handle are decoded whole, and
+     * only the regions are sampled.
+     *
+     * @throws IllegalArgumentException
+     *             if no region overlaps the image
+     */
+    private static int[][] extractRegionPalette(
+            ImageSource source,
+            ExtractionOptions options,
+            CancellationToken token,
+            ExtractionTrace trace) throws IOException {
+        checkArguments(options);
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        long start = System.nanoTime();
+        try {
+            source.decode(bounds);
+        } finally {
+            trace.end(ExtractionTrace.Stage.DECODE, start);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        Rect[] regions = clipRegions(options.regions, bounds.outWidth, bounds.outHeight);
+
+        token.throwIfCancelled();
+        BitmapRegionDecoder decoder = source.newRegionDecoder();
+        if (decoder == null) {
+            DecodedImage image = retrieveImage(source, options, token, trace);
+            if (image == null) {
+                return null;
+            }
+            try {
+                Rect[] scaled = scaleRegions(
+                        regions,
+                        (double) image.bitmap.getWidth() / bounds.outWidth,
+                        (double) image.bitmap.getHeight() / bounds.outHeight);
+                return getPalette(image.bitmap, scaled, image.quality, options, token, trace);
+            } finally {
+                image.bitmap.recycle();
+            }
+        }
+
+        Histogram histogram = Histogram.obtain(options.sigbits);
+        try {
+            long totalArea = 0;
+            for (Rect region : regions) {
+                totalArea += (long) region.width() * region.height();
+            }
+
+            for (Rect region : regions) {
+                token.throwIfCancelled();
+
+                // every region gets the share of the budget its area stands for
+                int maxSamplePixels = 0;
+                if (options.maxSamplePixels > 0) {
+                    long area = (long) region.width() * region.height();
+                    maxSamplePixels = (int) Math.max(1, options.maxSamplePixels * area / totalArea);
+                }
+
+                BitmapFactory.Options decodeOptions = newDecodeOptions(options);
+                int inSampleSize = 1;
+                if (maxSamplePixels > 0) {
+                    inSampleSize = calculateInSampleSize(
+                            region.width(),
+                            region.height(),
+                            options.quality,
+                            maxSamplePixels);
+                    decodeOptions.inSampleSize = inSampleSize;
+                }
+
+                start = System.nanoTime();
+                Bitmap bitmap;
+                try {
+                    bitmap = decoder.decodeRegion(region, decodeOptions);
+                } finally {
+                    trace.end(ExtractionTrace.Stage.DECODE, start);
+                }
+                if (bitmap == null) {
+                    return null;
+                }
+                try {
+                    trace.decoded((long) bitmap.getWidth() * bitmap.getHeight());
+                    int quality = sampleQuality(options.quality, inSampleSize, bitmap, maxSamplePixels);
+                    sample(bitmap, null, quality, options, histogram, token, trace);
+                } finally {
+                    bitmap.recycle();
+                }
+            }
+
+            return quantize(histogram, options, token, trace);
+        } finally {
+            histogram.recycle();
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if colorCount is not between 2 and 256, quality is &lt; 1 or the sampling is
+     *             unknown
+     */
+    private static void checkArguments(ExtractionOptions options) {
+        PaletteExtractor.checkArguments(options.colorCount, options.quality);
+        if (options.sampling == null) {
+            throw new IllegalArgumentException("Specified sampling must be linear or grid.");
+        }
+    }
+
+    /**
+     * Clips the regions to the image, dropping those outside of it.
+     *
+     * @throws IllegalArgumentException
+     *             if no region overlaps the image
+     */
+    static Rect[] clipRegions(Rect[] regions, int width, int height) {
+        int count = 0;
+        Rect[] clipped = new Rect[regions.length];
+        for (Rect region : regions) {
+            Rect rect = new Rect(region.left, region.top, region.right, region.bottom);
+            if (!rect.isEmpty() && rect.intersect(0, 0, width, height)) {
+                clipped[count++] = rect;
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("Specified regions should overlap the image.");
+        }
+
+        Rect[] result = new Rect[count];
+        System.arraycopy(clipped, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Maps regions of the original image onto the decoded, possibly downsampled, bitmap.
+     */
+    private static Rect[] scaleRegions(Rect[] regions, double scaleX, double scaleY) {
+        Rect[] scaled = new Rect[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            Rect region = regions[i];
+            scaled[i] = new Rect(
+                    (int) Math.floor(region.left * scaleX),
+                    (int) Math.floor(region.top * scaleY),
+                    Math.max((int) Math.ceil(region.right * scaleX), (int) Math.floor(region.left * scaleX) + 1),
+                    Math.max((int) Math.ceil(region.bottom * scaleY), (int) Math.floor(region.top * scaleY) + 1));
+        }
+        return scaled;
+    }
+
+    /**
+     * Decode the retrieved image, downsampled to the sample pixel budget of the options.
+     *
+     * @return the decoded image, or null if it couldn't be decoded
+     */
+    private static DecodedImage retrieveImage(
+            ImageSource source,
+            ExtractionOptions options,
+            CancellationToken token,
+            ExtractionTrace trace) {
+        // don't start decoding for nothing
+        token.throwIfCancelled();
+
+        long start = System.nanoTime();
+        DecodedImage image;
+        try {
+            image = decodeImage(source, options);
+        } catch (IOException e) {
+            System.out.println(e);
+            return null;
+        } finally {
+            trace.end(ExtractionTrace.Stage.DECODE, start);
+        }
+        if (image != null) {
+            trace.decoded((long) image.bitmap.getWidth() * image.bitmap.getHeight());
+        }
+        return image;
+    }
+
+    /**
+     * Decodes the image. With a sample pixel budget the bounds are read first and the image is
+     * decoded with the largest power-of-two inSampleSize that still leaves at least the budget
+     * in pixels; the quality is scaled down to match, so roughly the same share of the image is
+     * sampled, but never more than the budget.
+     */
+    static DecodedImage decodeImage(ImageSource source, ExtractionOptions options) throws IOException {
+        BitmapFactory.Options decodeOptions = newDecodeOptions(options);
+
+        int inSampleSize = 1;
+        if (options.maxSamplePixels > 0 && options.quality > 0) {
+            decodeOptions.inJustDecodeBounds = true;
+            source.decode(decodeOptions);
+            decodeOptions.inJustDecodeBounds = false;
+
+            if (decodeOptions.outWidth > 0 && decodeOptions.outHeight > 0) {
+                inSampleSize = calculateInSampleSize(
+                        decodeOptions.outWidth,
+                        decodeOptions.outHeight,
+                        options.quality,
+                        options.maxSamplePixels);
+                decodeOptions.inSampleSize = inSampleSize;
+            }
+        }
+
+        Bitmap bitmap = source.decode(decodeOptions);
+        if (bitmap == null) {
+            return null;
+        }
+
+        return new DecodedImage(bitmap, sampleQuality(options.quality, inSampleSize, bitmap, options.maxSamplePixels));
+    }
+
+    private static BitmapFactory.Options newDecodeOptions(ExtractionOptions options) {
+        BitmapFactory.Options decodeOptions = new BitmapFactory.Options();
+        if (options.preferRGB565) {
+            decodeOptions.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+        return decodeOptions;
+    }
+
+    /**
+     * Scales the quality down to match the downsampling, so roughly the same share of the image
+     * is sampled, but never more than maxSamplePixels (0 for no limit).
+     */
+    private static int sampleQuality(int quality, int inSampleSize, Bitmap bitmap, int maxSamplePixels) {
+        if (maxSamplePixels <= 0 || quality <= 0) {
+            return quality;
+        }
+
+        long pixelCount = (long) bitmap.getWidth() * bitmap.getHeight();
+        // each decoded pixel stands for inSampleSize^2 pixels of the original image
+        quality = Math.max(quality / (inSampleSize * inSampleSize), 1);
+        return (int) Math.max(quality, (pixelCount + maxSamplePixels - 1) / maxSamplePixels);
+    }
+
+    /**
+     * Calculates the largest power-of-two inSampleSize which keeps at least maxSamplePixels pixels
+     * in the decoded image; 1 if the image doesn't need downsampling at the given quality.
+     */
+    static int calculateInSampleSize(int width, int height, int quality, int maxSamplePixels) {
+        int inSampleSize = 1;
+        if ((long) width * height / quality <= maxSamplePixels) {
+            return inSampleSize;
+        }
+
+        while ((long) (width / (inSampleSize * 2)) * (height / (inSampleSize * 2)) >= maxSamplePixels) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Retrieve image source from url. http(s) urls are downloaded with the {@link ImageFetcher};
+     * local files (file:// or absolute paths), content:// and android.resource:// uris, assets
+     * (asset:/ or file:///android_asset/) and resource names, as bundled images are referred to in
+     * release builds, are read directly; other urls go through {@link URL#openConnection()}.
      *
      * @param imageUrl
      *          the image url
+     * @param token
+     *          cancelling it aborts the download
+     * @param trace
+     *          receives the time and size of downloads
      *
-     * @return the image as a Bitmap
+     * @return the encoded image, or null if it couldn't be retrieved
      */
-    private static Bitmap retrieveImageFromUrl(String imageUrl) {
+    private static ImageSource retrieveImageFromUrl(String imageUrl, CancellationToken token, ExtractionTrace trace) {
         if ((imageUrl instanceof String) == false) {
             System.out.println("Must pass a String for the imageUrl.");
             return null;
         }
 
         if (imageUrl.startsWith("data:image")) {
-            String base64Image = imageUrl.split(",")[1];
-
-            byte[] decodedString = Base64.decode(base64Image, Base64.DEFAULT);
-            Bitmap image = BitmapFactory.decodeByteArray(decodedString, 0, decodedString.length);
-            return image;
+            try {
+                return new ImageSource.DataUri(imageUrl);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e);
+                return null;
+            }
+        }
+        else if (isLocalSource(imageUrl)) {
+            return retrieveLocalImage(imageUrl);
+        }
+        else if (ImageFetcher.canFetch(imageUrl)) {
+            long start = System.nanoTime();
+            try {
+                ImageFetcher.Response response = imageFetcher.fetch(imageUrl, null, token);
+                trace.fetched(response.body.length);
+                return new ImageSource.Bytes(response.body, response.validators);
+            } catch (IOException e) {
+                System.out.println(e);
+                trace.fetchFailed();
+                return null;
+            } finally {
+                trace.end(ExtractionTrace.Stage.FETCH, start);
+            }
         }
         else {
+            Runnable abort = null;
+            long start = System.nanoTime();
             try {
                 URL url = new URL(imageUrl);
-                Bitmap image = BitmapFactory.decodeStream(url.openConnection().getInputStream());
-                return image;
+                final URLConnection connection = url.openConnection();
+                if (connection instanceof HttpURLConnection) {
+                    abort = new Runnable() {
+                        @Override
+                        public void run() {
+                            ((HttpURLConnection) connection).disconnect();
+                        }
+                    };
+                    token.onCancel(abort);
+                }
+
+                InputStream stream = connection.getInputStream();
+                try {
+                    byte[] data = readFully(stream, token);
+                    trace.fetched(data.length);
+                    return new ImageSource.Bytes(data);
+                } finally {
+                    stream.close();
+                }
             } catch (IOException e) {
+                // the download fails when it is aborted
+                token.throwIfCancelled();
                 System.out.println(e);
+                trace.fetchFailed();
                 return null;
+            } finally {
+                trace.end(ExtractionTrace.Stage.FETCH, start);
+                if (abort != null) {
+                    token.removeOnCancel(abort);
+                }
             }
         }
     }
-}
\ No newline at end of file
+
+    private static boolean isLocalSource(String imageUrl) {
+        return imageUrl.startsWith("/")
+                || imageUrl.startsWith("file:")
+                || imageUrl.startsWith("content:")
+                || imageUrl.startsWith("android.resource:")
+                || imageUrl.startsWith(ASSET_PREFIX)
+                || imageUrl.indexOf(':') == -1;
+    }
+
+    /**
+     * @return the local image, or null if it needs a context which hasn't been set or the
+     *         resource doesn't exist
+     */
+    private static ImageSource retrieveLocalImage(String imageUrl) {
+        if (imageUrl.startsWith("/")) {
+            return new ImageSource.LocalFile(new File(imageUrl));
+        }
+        if (imageUrl.startsWith("file:") && !imageUrl.startsWith(ANDROID_ASSET_PREFIX)) {
+            return new ImageSource.LocalFile(new File(Uri.parse(imageUrl).getPath()));
+        }
+
+        Context context = RNColorThief.context;
+        if (context == null) {
+            System.out.println("No context to load " + imageUrl);
+            return null;
+        }
+
+        if (imageUrl.startsWith(ANDROID_ASSET_PREFIX)) {
+            return new ImageSource.Asset(context.getAssets(), imageUrl.substring(ANDROID_ASSET_PREFIX.length()));
+        }
+        if (imageUrl.startsWith(ASSET_PREFIX)) {
+            String name = imageUrl.substring(ASSET_PREFIX.length());
+            while (name.startsWith("/")) {
+                name = name.substring(1);
+            }
+            return new ImageSource.Asset(context.getAssets(), name);
+        }
+        if (imageUrl.startsWith("content:") || imageUrl.startsWith("android.resource:")) {
+            return new ImageSource.Content(context.getContentResolver(), Uri.parse(imageUrl));
+        }
+
+        Resources resources = context.getResources();
+        String name = imageUrl.toLowerCase().replace('-', '_');
+        int id = resources.getIdentifier(name, "drawable", context.getPackageName());
+        if (id == 0) {
+            id = resources.getIdentifier(name, "raw", context.getPackageName());
+        }
+        if (id == 0) {
+            System.out.println("No drawable or raw resource named " + name);
+            return null;
+        }
+        return new ImageSource.Resource(resources, id);
+    }
+
+    private static byte[] readFully(InputStream stream, CancellationToken token) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16 * 1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1) {
+            token.throwIfCancelled();
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Decoded bitmap together with the quality to sample it with.
+     */
+    static class DecodedImage {
+        final Bitmap bitmap;
+        final int quality;
+
+        DecodedImage(Bitmap bitmap, int quality) {
+            this.bitmap = bitmap;
+            this.quality = quality;
+        }
+    }
+}
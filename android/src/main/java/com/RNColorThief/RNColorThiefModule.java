@@ -1,24 +1,72 @@
-
 package com.RNColorThief;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.Callback;
 import com.facebook.react.bridge.Promise;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.ReadableType;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeMap;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableNativeArray;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
 
 
 public class RNColorThiefModule extends ReactContextBaseJavaModule {
 
+  private static final String E_COLOR_THIEF = "E_COLOR_THIEF";
+  private static final String E_REJECTED = "E_REJECTED";
+
+  private static final String BATCH_ITEM_EVENT = "RNColorThiefBatchItem";
+  private static final String BATCH_DONE_EVENT = "RNColorThiefBatchDone";
+  private static final String TRACE_EVENT = "RNColorThiefTrace";
+
   private final ReactApplicationContext reactContext;
 
+  private volatile ExtractionExecutor executor = new ExtractionExecutor();
+  private final InFlightRequests inFlightRequests = new InFlightRequests();
+  private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+
+  // frees the quantizer tables kept by the workers once the app is hidden or memory runs low
+  private final ComponentCallbacks2 memoryCallbacks = new ComponentCallbacks2() {
+    @Override
+    public void onTrimMemory(int level) {
+      if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+        MMCQ.trimMemory();
+      }
+    }
+
+    @Override
+    public void onLowMemory() {
+      MMCQ.trimMemory();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+  };
+
   public RNColorThiefModule(ReactApplicationContext reactContext) {
     super(reactContext);
     this.reactContext = reactContext;
+
+    RNColorThief.setContext(reactContext);
+    RNColorThief.initDiskPaletteCache(new File(reactContext.getCacheDir(), "RNColorThief"));
+    reactContext.registerComponentCallbacks(memoryCallbacks);
   }
 
   @Override
@@ -26,49 +74,764 @@ public class RNColorThiefModule extends ReactContextBaseJavaModule {
     return "RNColorThief";
   }
 
+  @Override
+  public Map<String, Object> getConstants() {
+    Map<String, Object> constants = new HashMap<>();
+    constants.put("BATCH_ITEM_EVENT", BATCH_ITEM_EVENT);
+    constants.put("BATCH_DONE_EVENT", BATCH_DONE_EVENT);
+    constants.put("TRACE_EVENT", TRACE_EVENT);
+    return constants;
+  }
+
+  @Override
+  public void onCatalystInstanceDestroy() {
+    reactContext.unregisterComponentCallbacks(memoryCallbacks);
+    executor.shutdown();
+    RNColorThief.getDiskPaletteCache().flush();
+  }
+
   @ReactMethod
-  public void getPalette(String imageUrl, int quality, int count, boolean ignoreWhite, Promise promise) {
-    int[][] rgb = RNColorThief.getPalette(imageUrl, quality, count, ignoreWhite);
-    if (rgb == null) {
-      promise.resolve(null);
+  public void getPalette(String imageUrl, int count, int quality, boolean ignoreWhite, Promise promise) {
+    extractPalette(imageUrl, new ExtractionOptions(count, quality, ignoreWhite), null, promise);
+  }
+
+  @ReactMethod
+  public void getColor(String imageUrl, int quality, boolean ignoreWhite, Promise promise) {
+    extractColor(imageUrl, new ExtractionOptions(ExtractionOptions.DEFAULT_COLOR_COUNT, quality, ignoreWhite), null, promise);
+  }
+
+  @ReactMethod
+  public void getPaletteWithOptions(String imageUrl, ReadableMap options, Promise promise) {
+    extractPalette(imageUrl, ExtractionOptions.fromReadableMap(options), getRequestId(options), promise);
+  }
+
+  @ReactMethod
+  public void getColorWithOptions(String imageUrl, ReadableMap options, Promise promise) {
+    extractColor(imageUrl, ExtractionOptions.fromReadableMap(options), getRequestId(options), promise);
+  }
+
+  /**
+   * Extracts one palette per region of the layout ({ type: 'edges', size } for the top, bottom,
+   * left and right bands, or { type: 'grid', rows, columns } for the cells in row-major order)
+   * from a single decode, and resolves with them in layout order.
+   */
+  @ReactMethod
+  public void getRegionPalettes(final String imageUrl, ReadableMap layout, ReadableMap options, final Promise promise) {
+    final RegionLayout regionLayout;
+    try {
+      regionLayout = RegionLayout.fromReadableMap(layout);
+    } catch (IllegalArgumentException e) {
+      promise.reject(E_COLOR_THIEF, e.getMessage(), e);
       return;
     }
+    final ExtractionOptions extractionOptions = ExtractionOptions.fromReadableMap(options);
 
-    WritableArray resultArray = new WritableNativeArray();
+    executor.execute(new ExtractionExecutor.Task() {
+      @Override
+      public void run() {
+        try {
+          int[][][] palettes = RNColorThief.getRegionPalettes(imageUrl, regionLayout, extractionOptions);
+          if (palettes == null) {
+            promise.resolve(null);
+            return;
+          }
 
-     if (rgb == null) {
-            WritableMap resultData = new WritableNativeMap();
-
-            resultData.putInt("r", 0);
-            resultData.putInt("g", 0);
-            resultData.putInt("b", 0);
-            promise.resolve(resultData);
-        } else {
-            for (int i = 0; i < rgb.length; i++) {
-                WritableMap resultData = new WritableNativeMap();
-                resultData.putInt("r", rgb[i][0]);
-                resultData.putInt("g", rgb[i][1]);
-                resultData.putInt("b", rgb[i][2]);
-                resultArray.pushMap(resultData);
+          WritableArray resultArray = new WritableNativeArray();
+          for (int[][] palette : palettes) {
+            if (palette != null) {
+              resultArray.pushArray(toPaletteArray(palette));
+            } else {
+              resultArray.pushNull();
             }
+          }
+          promise.resolve(resultArray);
+        } catch (RuntimeException e) {
+          promise.reject(E_COLOR_THIEF, e.getMessage(), e);
+        }
+      }
 
-            promise.resolve(resultArray);
+      @Override
+      public void reject(RejectedExecutionException e) {
+        promise.reject(E_REJECTED, "Palette extraction was rejected by the worker pool.", e);
+      }
+    });
+  }
+
+  /**
+   * Extracts the palettes of all sources, running at most options.concurrency (default: the pool
+   * size) at a time, and resolves with one entry per source: { palette, error }.
+   */
+  @ReactMethod
+  public void getPalettes(ReadableArray sources, ReadableMap options, final Promise promise) {
+    final ExtractionOptions extractionOptions = ExtractionOptions.fromReadableMap(options);
+    int concurrency = options != null && options.hasKey("concurrency")
+        ? options.getInt("concurrency") : executor.getPoolSize();
+
+    new Batch(toStringArray(sources), extractionOptions, concurrency) {
+      @Override
+      void onFinished(int[][][] palettes, String[] errors) {
+        WritableArray resultArray = new WritableNativeArray();
+        for (int i = 0; i < palettes.length; i++) {
+          resultArray.pushMap(toBatchItem(palettes[i], errors[i]));
         }
+        promise.resolve(resultArray);
+      }
+    }.start();
   }
 
+  /**
+   * Like getPalettes, but every finished source is emitted right away as a BATCH_ITEM_EVENT tagged
+   * with the batch id, followed by one BATCH_DONE_EVENT. The promise resolves with the same
+   * summary as the done event: { batchId, completed, total, cancelled }.
+   */
   @ReactMethod
-  public void getColor(String imageUrl, int quality, boolean ignoreWhite, Promise promise) {
-    int[] rgb = RNColorThief.getColor(imageUrl, quality, ignoreWhite);
-    if (rgb == null) {
+  public void startPaletteBatch(final String batchId, ReadableArray sources, ReadableMap options, final Promise promise) {
+    if (batches.containsKey(batchId)) {
+      promise.reject(E_COLOR_THIEF, "A batch with the id " + batchId + " is already running.");
+      return;
+    }
+
+    final ExtractionOptions extractionOptions = ExtractionOptions.fromReadableMap(options);
+    int concurrency = options != null && options.hasKey("concurrency")
+        ? options.getInt("concurrency") : executor.getPoolSize();
+    final String[] sourceArray = toStringArray(sources);
+
+    Batch batch = new Batch(sourceArray, extractionOptions, concurrency) {
+      @Override
+      void onItem(int index, int[][] palette, String error, int completed) {
+        WritableMap event = toBatchItem(palette, error);
+        event.putString("batchId", batchId);
+        event.putInt("index", index);
+        event.putInt("completed", completed);
+        event.putInt("total", sourceArray.length);
+        emit(BATCH_ITEM_EVENT, event);
+      }
+
+      @Override
+      void onFinished(int[][][] palettes, String[] errors) {
+        batches.remove(batchId);
+
+        emit(BATCH_DONE_EVENT, toBatchSummary(batchId, completedCount(), palettes.length, isCancelled()));
+        promise.resolve(toBatchSummary(batchId, completedCount(), palettes.length, isCancelled()));
+      }
+    };
+    batches.put(batchId, batch);
+    batch.start();
+  }
+
+  /**
+   * Stops a batch started with startPaletteBatch from starting any more sources and cancels the
+   * extractions it is waiting for.
+   */
+  @ReactMethod
+  public void cancelPaletteBatch(String batchId) {
+    Batch batch = batches.get(batchId);
+    if (batch != null) {
+      batch.cancel();
+    }
+  }
+
+  // Required by NativeEventEmitter
+  @ReactMethod
+  public void addListener(String eventName) {
+  }
+
+  // Required by NativeEventEmitter
+  @ReactMethod
+  public void removeListeners(int count) {
+  }
+
+  private void emit(String eventName, WritableMap event) {
+    reactContext
+        .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+        .emit(eventName, event);
+  }
+
+  /**
+   * Cancels the request started with the given options.requestId. Its promise rejects with
+   * E_CANCELLED; the download, decode and quantization stop unless another request is waiting
+   * for the same palette.
+   */
+  @ReactMethod
+  public void cancel(String requestId) {
+    PendingRequest request = pendingRequests.get(requestId);
+    if (request != null) {
+      inFlightRequests.cancel(request.cacheKey, request.listener);
+    }
+  }
+
+  private void extractPalette(String imageUrl, ExtractionOptions options, String requestId, final Promise promise) {
+    extract(imageUrl, options, new PromiseListener(requestId, promise) {
+      @Override
+      void resolve(int[][] palette) {
+        promise.resolve(palette != null ? toPaletteArray(palette) : null);
+      }
+    });
+  }
+
+  private void extractColor(String imageUrl, ExtractionOptions options, String requestId, final Promise promise) {
+    extract(imageUrl, options, new PromiseListener(requestId, promise) {
+      @Override
+      void resolve(int[][] palette) {
+        promise.resolve(palette != null ? toColorMap(palette[0]) : null);
+      }
+    });
+  }
+
+  private void extract(String imageUrl, ExtractionOptions options, PromiseListener listener) {
+    String cacheKey = PaletteCache.key(imageUrl, options);
+    if (listener.requestId != null) {
+      pendingRequests.put(listener.requestId, new PendingRequest(cacheKey, listener));
+    }
+    extract(imageUrl, options, cacheKey, listener);
+  }
+
+  /**
+   * Answers from the palette cache, or joins the extraction already running for the same source
+   * and parameters, or queues a new one on the worker pool. Requests asking for revalidation skip
+   * the cache here, the worker revalidates the cached palette instead. With options.trace, an
+   * extraction started here is reported as a TRACE_EVENT before its requests are settled.
+   */
+  private void extract(
+      final String imageUrl,
+      final ExtractionOptions options,
+      final String cacheKey,
+      InFlightRequests.Listener listener) {
+    if (!options.revalidate) {
+      int[][] cached = RNColorThief.getPaletteCache().get(cacheKey);
+      if (cached != null) {
+        listener.onPalette(cached);
+        return;
+      }
+    }
+
+    final CancellationToken token = inFlightRequests.attach(cacheKey, listener);
+    if (token == null) {
+      return;
+    }
+
+    final String requestId = listener instanceof PromiseListener ? ((PromiseListener) listener).requestId : null;
+    final ExtractionTrace trace = new ExtractionTrace(imageUrl);
+    final long queuedAt = System.nanoTime();
+
+    executor.execute(new ExtractionExecutor.Task() {
+      @Override
+      public void run() {
+        trace.end(ExtractionTrace.Stage.QUEUE, queuedAt);
+
+        int[][] palette;
+        try {
+          palette = RNColorThief.extractPalette(imageUrl, options, cacheKey, token, trace);
+        } catch (CancellationException e) {
+          // the waiting requests have already been settled
+          return;
+        } catch (RuntimeException e) {
+          inFlightRequests.fail(cacheKey, token, E_COLOR_THIEF, e.getMessage(), e);
+          return;
+        } finally {
+          if (options.trace) {
+            emit(TRACE_EVENT, toTraceEvent(trace, requestId));
+          }
+        }
+        inFlightRequests.complete(cacheKey, token, palette);
+      }
+
+      @Override
+      public void reject(RejectedExecutionException e) {
+        inFlightRequests.fail(cacheKey, token, E_REJECTED, "Palette extraction was rejected by the worker pool.", e);
+      }
+    });
+  }
+
+  /**
+   * Replaces the worker pool and resizes the palette cache. Tasks already queued on the old pool
+   * still run to completion. Recognized keys: poolSize, queueSize, rejectionPolicy ("abort",
+   * "callerRuns" or "discardOldest"), cacheSize and diskCacheSize (number of palettes kept in
+   * memory / on disk, 0 disables the cache), connectTimeout and readTimeout (milliseconds) and
+   * maxResponseBytes for image downloads. The promise resolves once the disk cache has been
+   * resized, which happens on its IO thread after the cache file is loaded.
+   */
+  @ReactMethod
+  public void configure(ReadableMap options, final Promise promise) {
+    try {
+      if (options.hasKey("cacheSize")) {
+        RNColorThief.getPaletteCache().resize(options.getInt("cacheSize"));
+      }
+      if (options.hasKey("connectTimeout") || options.hasKey("readTimeout") || options.hasKey("maxResponseBytes")) {
+        ImageFetcher current = RNColorThief.getImageFetcher();
+        RNColorThief.setImageFetcher(new ImageFetcher(
+            options.hasKey("connectTimeout") ? options.getInt("connectTimeout") : current.getConnectTimeoutMs(),
+            options.hasKey("readTimeout") ? options.getInt("readTimeout") : current.getReadTimeoutMs(),
+            options.hasKey("maxResponseBytes") ? options.getInt("maxResponseBytes") : current.getMaxResponseBytes()));
+      }
+    } catch (IllegalArgumentException e) {
+      promise.reject(E_COLOR_THIEF, e.getMessage(), e);
+      return;
+    }
+
+    if (options.hasKey("poolSize") || options.hasKey("queueSize") || options.hasKey("rejectionPolicy")) {
+      ExtractionExecutor current = executor;
+
+      int poolSize = options.hasKey("poolSize") ? options.getInt("poolSize") : current.getPoolSize();
+      int queueSize = options.hasKey("queueSize") ? options.getInt("queueSize") : current.getQueueSize();
+      String rejectionPolicy = options.hasKey("rejectionPolicy")
+          ? options.getString("rejectionPolicy") : current.getRejectionPolicy();
+
+      try {
+        executor = new ExtractionExecutor(poolSize, queueSize, rejectionPolicy);
+      } catch (IllegalArgumentException e) {
+        promise.reject(E_COLOR_THIEF, e.getMessage(), e);
+        return;
+      }
+      current.shutdown();
+    }
+
+    if (!options.hasKey("diskCacheSize")) {
       promise.resolve(null);
       return;
     }
+    // resizing waits for the cache file to be loaded, which must not block the module thread
+    try {
+      RNColorThief.getDiskPaletteCache().resize(options.getInt("diskCacheSize"), new Runnable() {
+        @Override
+        public void run() {
+          promise.resolve(null);
+        }
+      });
+    } catch (IllegalArgumentException e) {
+      promise.reject(E_COLOR_THIEF, e.getMessage(), e);
+    }
+  }
+
+  @ReactMethod
+  public void getExecutorStats(Promise promise) {
+    ExtractionExecutor current = executor;
+
+    WritableMap stats = new WritableNativeMap();
+    stats.putInt("poolSize", current.getPoolSize());
+    stats.putInt("queueSize", current.getQueueSize());
+    stats.putString("rejectionPolicy", current.getRejectionPolicy());
+    stats.putInt("queueDepth", current.getQueueDepth());
+    stats.putInt("activeWorkers", current.getActiveCount());
+    stats.putDouble("submitted", current.getSubmittedCount());
+    stats.putDouble("completed", current.getCompletedCount());
+    stats.putDouble("rejected", current.getRejectedCount());
+    stats.putInt("inFlight", inFlightRequests.size());
+    stats.putDouble("coalesced", inFlightRequests.coalescedCount());
+    stats.putDouble("cancelled", inFlightRequests.cancelledCount());
+
+    promise.resolve(stats);
+  }
+
+  @ReactMethod
+  public void getCacheStats(Promise promise) {
+    PaletteCache cache = RNColorThief.getPaletteCache();
+
+    WritableMap stats = new WritableNativeMap();
+    stats.putInt("size", cache.size());
+    stats.putInt("maxSize", cache.maxSize());
+    stats.putDouble("hits", cache.hitCount());
+    stats.putDouble("misses", cache.missCount());
+    stats.putDouble("puts", cache.putCount());
+    stats.putDouble("evictions", cache.evictionCount());
+
+    DiskPaletteCache diskCache = RNColorThief.getDiskPaletteCache();
+    stats.putInt("diskSize", diskCache.size());
+    stats.putInt("diskMaxSize", diskCache.maxSize());
+    stats.putDouble("diskHits", diskCache.hitCount());
+    stats.putDouble("diskMisses", diskCache.missCount());
+    stats.putDouble("diskEvictions", diskCache.evictionCount());
+
+    promise.resolve(stats);
+  }
+
+  /**
+   * Resolves with the timings and counts aggregated over all extractions: per stage (queue, fetch,
+   * decode, sample, quantize, total) the count, total, mean and maximum, estimated percentiles
+   * and a latency histogram in milliseconds; the outcomes, byte and pixel counts, and per image
+   * host the downloads, failures, bytes and fetch times.
+   */
+  @ReactMethod
+  public void getExtractionStats(Promise promise) {
+    ExtractionStats extractionStats = RNColorThief.getExtractionStats();
+
+    WritableMap stats = new WritableNativeMap();
+    stats.putDouble("extractions", extractionStats.extractionCount());
+    stats.putDouble("bytesFetched", extractionStats.bytesFetched());
+    stats.putDouble("decodedPixels", extractionStats.decodedPixels());
+    stats.putDouble("sampledPixels", extractionStats.sampledPixels());
+
+    WritableMap outcomes = new WritableNativeMap();
+    for (ExtractionTrace.Outcome outcome : ExtractionTrace.Outcome.values()) {
+      outcomes.putDouble(outcome.key, extractionStats.outcomeCount(outcome));
+    }
+    stats.putMap("outcomes", outcomes);
+
+    WritableArray bucketBounds = new WritableNativeArray();
+    for (long bound : ExtractionStats.BUCKET_BOUNDS_MS) {
+      bucketBounds.pushDouble(bound);
+    }
+    stats.putArray("bucketBoundsMs", bucketBounds);
+
+    WritableMap stages = new WritableNativeMap();
+    for (ExtractionTrace.Stage stage : ExtractionTrace.Stage.values()) {
+      stages.putMap(stage.key, toStageStats(extractionStats.getStageStats(stage)));
+    }
+    stats.putMap("stages", stages);
+
+    WritableArray hosts = new WritableNativeArray();
+    for (ExtractionStats.HostStats hostStats : extractionStats.getHostStats()) {
+      WritableMap host = new WritableNativeMap();
+      host.putString("host", hostStats.host);
+      host.putDouble("fetches", hostStats.fetches);
+      host.putDouble("failures", hostStats.failures);
+      host.putDouble("bytes", hostStats.bytes);
+      host.putDouble("meanMs", hostStats.fetches > 0 ? toMillis(hostStats.totalNanos) / hostStats.fetches : 0);
+      host.putDouble("maxMs", toMillis(hostStats.maxNanos));
+      hosts.pushMap(host);
+    }
+    stats.putArray("hosts", hosts);
+
+    promise.resolve(stats);
+  }
+
+  @ReactMethod
+  public void resetExtractionStats(Promise promise) {
+    RNColorThief.getExtractionStats().reset();
+    promise.resolve(null);
+  }
+
+  @ReactMethod
+  public void clearCache(final Promise promise) {
+    RNColorThief.getPaletteCache().clear();
+    RNColorThief.getDiskPaletteCache().clear(new Runnable() {
+      @Override
+      public void run() {
+        promise.resolve(null);
+      }
+    });
+  }
+
+  private static String getRequestId(ReadableMap options) {
+    return options != null && options.hasKey("requestId") ? options.getString("requestId") : null;
+  }
+
+  private static String[] toStringArray(ReadableArray array) {
+    String[] strings = new String[array.size()];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = array.getType(i) == ReadableType.String ? array.getString(i) : null;
+    }
+    return strings;
+  }
 
+  private static WritableMap toBatchItem(int[][] palette, String error) {
+    WritableMap item = new WritableNativeMap();
+    if (palette != null) {
+      item.putArray("palette", toPaletteArray(palette));
+    } else {
+      item.putNull("palette");
+    }
+    if (error != null) {
+      item.putString("error", error);
+    } else {
+      item.putNull("error");
+    }
+    return item;
+  }
+
+  private static WritableMap toBatchSummary(String batchId, int completed, int total, boolean cancelled) {
+    WritableMap summary = new WritableNativeMap();
+    summary.putString("batchId", batchId);
+    summary.putInt("completed", completed);
+    summary.putInt("total", total);
+    summary.putBoolean("cancelled", cancelled);
+    return summary;
+  }
+
+  private static WritableMap toStageStats(ExtractionStats.StageStats stageStats) {
+    WritableMap stage = new WritableNativeMap();
+    stage.putDouble("count", stageStats.count);
+    stage.putDouble("totalMs", toMillis(stageStats.totalNanos));
+    stage.putDouble("meanMs", stageStats.count > 0 ? toMillis(stageStats.totalNanos) / stageStats.count : 0);
+    stage.putDouble("maxMs", toMillis(stageStats.maxNanos));
+    stage.putDouble("p50Ms", stageStats.percentileMs(0.5));
+    stage.putDouble("p90Ms", stageStats.percentileMs(0.9));
+    stage.putDouble("p99Ms", stageStats.percentileMs(0.99));
+
+    WritableArray buckets = new WritableNativeArray();
+    for (long count : stageStats.buckets) {
+      buckets.pushDouble(count);
+    }
+    stage.putArray("buckets", buckets);
+    return stage;
+  }
+
+  /**
+   * Trace of one extraction: the milliseconds of every stage it went through, its outcome and its
+   * byte and pixel counts.
+   */
+  private static WritableMap toTraceEvent(ExtractionTrace trace, String requestId) {
+    WritableMap event = new WritableNativeMap();
+    if (requestId != null) {
+      event.putString("requestId", requestId);
+    } else {
+      event.putNull("requestId");
+    }
+    event.putString("source", trace.getSource());
+    event.putString("outcome", trace.getOutcome() != null ? trace.getOutcome().key : null);
+
+    WritableMap stages = new WritableNativeMap();
+    for (ExtractionTrace.Stage stage : ExtractionTrace.Stage.values()) {
+      if (trace.ran(stage)) {
+        stages.putDouble(stage.key, toMillis(trace.getNanos(stage)));
+      }
+    }
+    event.putMap("stagesMs", stages);
+
+    event.putDouble("bytesFetched", trace.getBytesFetched());
+    event.putBoolean("fetchFailed", trace.isFetchFailed());
+    event.putDouble("decodedPixels", trace.getDecodedPixels());
+    event.putDouble("sampledPixels", trace.getSampledPixels());
+    return event;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / 1e6;
+  }
+
+  private static WritableArray toPaletteArray(int[][] rgb) {
+    WritableArray resultArray = new WritableNativeArray();
+    for (int i = 0; i < rgb.length; i++) {
+      resultArray.pushMap(toColorMap(rgb[i]));
+    }
+    return resultArray;
+  }
+
+  private static WritableMap toColorMap(int[] rgb) {
     WritableMap resultData = new WritableNativeMap();
     resultData.putInt("r", rgb[0]);
     resultData.putInt("g", rgb[1]);
     resultData.putInt("b", rgb[2]);
+    return resultData;
+  }
+
+  /**
+   * Extracts the palettes of several sources, keeping at most concurrency extractions queued or
+   * running at a time so a large batch doesn't fill up the worker pool's queue.
+   */
+  private abstract class Batch {
+    final String[] sources;
+    final ExtractionOptions options;
+    final int concurrency;
+
+    final int[][][] palettes;
+    final String[] errors;
+
+    private final String[] runningKeys;
+    private final InFlightRequests.Listener[] runningListeners;
+
+    private int next;
+    private int running;
+    private int remaining;
+    private int completed;
+    private boolean cancelled;
+    private boolean pumping;
+    private boolean pumpAgain;
+
+    Batch(String[] sources, ExtractionOptions options, int concurrency) {
+      this.sources = sources;
+      this.options = options;
+      this.concurrency = Math.max(1, concurrency);
+      this.palettes = new int[sources.length][][];
+      this.errors = new String[sources.length];
+      this.runningKeys = new String[sources.length];
+      this.runningListeners = new InFlightRequests.Listener[sources.length];
+      this.remaining = sources.length;
+    }
+
+    /**
+     * Called once per finished source, on whichever thread finished it.
+     *
+     * @param completed
+     *          the number of sources finished so far, including this one
+     */
+    void onItem(int index, int[][] palette, String error, int completed) {
+    }
+
+    /**
+     * Called once all sources have finished.
+     */
+    abstract void onFinished(int[][][] palettes, String[] errors);
+
+    void start() {
+      if (sources.length == 0) {
+        onFinished(palettes, errors);
+        return;
+      }
+      pump();
+    }
 
-    promise.resolve(resultData);
+    /**
+     * Doesn't start any more sources and cancels the running ones, which are reported with an
+     * error unless they finish first.
+     */
+    void cancel() {
+      boolean finished;
+      String[] keys;
+      InFlightRequests.Listener[] listeners;
+      synchronized (this) {
+        if (cancelled || remaining == 0) {
+          return;
+        }
+        cancelled = true;
+        remaining -= sources.length - next;
+        next = sources.length;
+        finished = remaining == 0;
+        keys = runningKeys.clone();
+        listeners = runningListeners.clone();
+      }
+
+      if (finished) {
+        onFinished(palettes, errors);
+        return;
+      }
+      for (int i = 0; i < listeners.length; i++) {
+        if (listeners[i] != null) {
+          inFlightRequests.cancel(keys[i], listeners[i]);
+        }
+      }
+    }
+
+    synchronized boolean isCancelled() {
+      return cancelled;
+    }
+
+    synchronized int completedCount() {
+      return completed;
+    }
+
+    /**
+     * Starts extractions until the concurrency limit is reached. Cache hits finish synchronously
+     * and call back into pump(), so only one thread pumps at a time and the others leave a note.
+     */
+    private void pump() {
+      synchronized (this) {
+        if (pumping) {
+          pumpAgain = true;
+          return;
+        }
+        pumping = true;
+      }
+
+      while (true) {
+        final int index;
+        synchronized (this) {
+          if (next < sources.length && running < concurrency) {
+            index = next++;
+            running++;
+          } else if (pumpAgain) {
+            pumpAgain = false;
+            continue;
+          } else {
+            pumping = false;
+            return;
+          }
+        }
+
+        if (sources[index] == null) {
+          finishItem(index, null, "Must pass a String for the imageUrl.");
+          continue;
+        }
+
+        InFlightRequests.Listener listener = new InFlightRequests.Listener() {
+          @Override
+          public void onPalette(int[][] palette) {
+            finishItem(index, palette, null);
+          }
+
+          @Override
+          public void onFailure(String code, String message, Throwable e) {
+            finishItem(index, null, message != null ? message : code);
+          }
+        };
+        String cacheKey = PaletteCache.key(sources[index], options);
+        synchronized (this) {
+          runningKeys[index] = cacheKey;
+          runningListeners[index] = listener;
+        }
+        extract(sources[index], options, cacheKey, listener);
+      }
+    }
+
+    private void finishItem(int index, int[][] palette, String error) {
+      boolean finished;
+      int completedCount;
+      synchronized (this) {
+        palettes[index] = palette;
+        errors[index] = error;
+        runningKeys[index] = null;
+        runningListeners[index] = null;
+        running--;
+        completedCount = ++completed;
+        finished = --remaining == 0;
+      }
+
+      onItem(index, palette, error, completedCount);
+      if (finished) {
+        onFinished(palettes, errors);
+      } else {
+        pump();
+      }
+    }
+  }
+
+  /**
+   * Request started from JS, kept by its requestId so it can be cancelled.
+   */
+  private static class PendingRequest {
+    final String cacheKey;
+    final InFlightRequests.Listener listener;
+
+    PendingRequest(String cacheKey, InFlightRequests.Listener listener) {
+      this.cacheKey = cacheKey;
+      this.listener = listener;
+    }
+  }
+
+  /**
+   * Settles the promise and forgets the request once the extraction is done.
+   */
+  private abstract class PromiseListener implements InFlightRequests.Listener {
+    final String requestId;
+    private final Promise promise;
+
+    PromiseListener(String requestId, Promise promise) {
+      this.requestId = requestId;
+      this.promise = promise;
+    }
+
+    abstract void resolve(int[][] palette);
+
+    @Override
+    public void onPalette(int[][] palette) {
+      forget();
+      resolve(palette);
+    }
+
+    @Override
+    public void onFailure(String code, String message, Throwable e) {
+      forget();
+      promise.reject(code, message, e);
+    }
+
+    private void forget() {
+      if (requestId == null) {
+        return;
+      }
+      PendingRequest request = pendingRequests.get(requestId);
+      if (request != null && request.listener == this) {
+        pendingRequests.remove(requestId, request);
+      }
+    }
   }
 }
@@ -0,0 +1,110 @@
+package com.RNColorThief;
+
+import android.graphics.Rect;
+
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Splits an image into the regions multi-region palettes are extracted from, either the four
+ * edge bands (top, bottom, left, right) or a grid of cells in row-major order.
+ */
+public class RegionLayout {
+
+    public static final double DEFAULT_EDGE_SIZE = 0.1;
+
+    private final String type;
+    private final double edgeSize;
+    private final int rows;
+    private final int columns;
+
+    private RegionLayout(String type, double edgeSize, int rows, int columns) {
+        this.type = type;
+        this.edgeSize = edgeSize;
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    /**
+     * @param size
+     *            the thickness of the bands as fraction of the image height (top, bottom) or
+     *            width (left, right)
+     * @throws IllegalArgumentException
+     *             if size is not in (0, 1]
+     */
+    public static RegionLayout edges(double size) {
+        if (!(size > 0 && size <= 1)) {
+            throw new IllegalArgumentException("Specified edge size must be greater than 0 and at most 1.");
+        }
+        return new RegionLayout("edges", size, 0, 0);
+    }
+
+    /**
+     * @throws IllegalArgumentException
+     *             if rows or columns is &lt; 1, or there are more than
+     *             {@link PaletteExtractor#MAX_REGIONS} cells
+     */
+    public static RegionLayout grid(int rows, int columns) {
+        if (rows < 1 || columns < 1) {
+            throw new IllegalArgumentException("Specified rows and columns should be greater then 0.");
+        }
+        if (rows > PaletteExtractor.MAX_REGIONS || columns > PaletteExtractor.MAX_REGIONS
+                || rows * columns > PaletteExtractor.MAX_REGIONS) {
+            throw new IllegalArgumentException("Specified grid must have at most "
+                    + PaletteExtractor.MAX_REGIONS + " cells.");
+        }
+        return new RegionLayout("grid", 0, rows, columns);
+    }
+
+    /**
+     * @return the number of regions
+     */
+    public int size() {
+        return "edges".equals(type) ? 4 : rows * columns;
+    }
+
+    /**
+     * @return the regions of an image of the given size, each at least one pixel large
+     */
+    public Rect[] toRects(int width, int height) {
+        Rect[] rects = new Rect[size()];
+        if ("edges".equals(type)) {
+            int bandHeight = Math.max(1, (int) Math.round(height * edgeSize));
+            int bandWidth = Math.max(1, (int) Math.round(width * edgeSize));
+            rects[0] = new Rect(0, 0, width, bandHeight);
+            rects[1] = new Rect(0, height - bandHeight, width, height);
+            rects[2] = new Rect(0, 0, bandWidth, height);
+            rects[3] = new Rect(width - bandWidth, 0, width, height);
+            return rects;
+        }
+
+        for (int row = 0; row < rows; row++) {
+            int top = (int) ((long) row * height / rows);
+            int bottom = Math.max(top + 1, (int) ((long) (row + 1) * height / rows));
+            for (int column = 0; column < columns; column++) {
+                int left = (int) ((long) column * width / columns);
+                int right = Math.max(left + 1, (int) ((long) (column + 1) * width / columns));
+                rects[row * columns + column] = new Rect(left, top, right, bottom);
+            }
+        }
+        return rects;
+    }
+
+    /**
+     * Reads the layout passed from JS: { type: 'edges', size } or { type: 'grid', rows, columns }.
+     *
+     * @throws IllegalArgumentException
+     *             if the type is unknown or a parameter is out of range
+     */
+    public static RegionLayout fromReadableMap(ReadableMap map) {
+        String type = map.hasKey("type") ? map.getString("type") : null;
+        if ("edges".equals(type)) {
+            return edges(map.hasKey("size") ? map.getDouble("size") : DEFAULT_EDGE_SIZE);
+        }
+        if ("grid".equals(type)) {
+            return grid(
+                    map.hasKey("rows") ? map.getInt("rows") : 2,
+                    map.hasKey("columns") ? map.getInt("columns") : 2);
+        }
+        throw new IllegalArgumentException("Unknown region layout: " + type);
+    }
+}
@@ -0,0 +1,40 @@
+package com.RNColorThief;
+
+/**
+ * How the pixels of a region are picked for the histogram; both take about one pixel in quality.
+ */
+public enum Sampling {
+    /**
+     * Every quality-th pixel, counted row by row over the whole region, like the original Color
+     * Thief. Every row is read, and when the width is a multiple of the quality (or shares a
+     * large factor with it) the same few columns are sampled in every row.
+     */
+    LINEAR("linear"),
+    /**
+     * One pixel in every cell of a grid of about quality pixels per cell, at a position jittered
+     * within the cell, so the samples are spread evenly over both axes. All cells of a grid row
+     * share one image row, so only those rows are read. At quality 1 every pixel is sampled, in
+     * the same order as with {@link #LINEAR}.
+     */
+    GRID("grid");
+
+    public static final Sampling DEFAULT = GRID;
+
+    public final String key;
+
+    Sampling(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the sampling with the key, or null if there is none
+     */
+    public static Sampling fromKey(String key) {
+        for (Sampling sampling : values()) {
+            if (sampling.key.equals(key)) {
+                return sampling;
+            }
+        }
+        return null;
+    }
+}
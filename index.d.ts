@@ -4,5 +4,188 @@ export interface ColorObject {
     b: number;
 }
 
+// Rectangle in pixels of the original image.
+export interface Region {
+    left: number;
+    top: number;
+    right: number;
+    bottom: number;
+}
+
+export interface ExtractionOptions {
+    colorCount?: number;
+    quality?: number;
+    ignoreWhite?: boolean;
+    // Upper bound for the number of sampled pixels; large images are decoded downsampled.
+    maxSamplePixels?: number;
+    preferRGB565?: boolean;
+    // Significant bits per color channel in the histogram, 4 to 6 (default 5).
+    sigbits?: number;
+    // Android only. 'grid' (default): one pixel per jittered grid cell of about quality pixels.
+    // 'linear': every quality-th pixel row by row, the palettes of the original Color Thief.
+    // iOS always samples linearly, so above quality 1 the default palettes differ between the
+    // platforms; pass 'linear' where they have to match.
+    sampling?: 'grid' | 'linear';
+    // Maximum number of threads sampling one large image (default 1, at most the number of cores);
+    // the palette is the same.
+    parallelism?: number;
+    // Samples in passes until the palette stops changing; quality is then the finest stride.
+    adaptive?: boolean;
+    // Largest change in RGB distance between passes for the palette to count as settled (default 8).
+    adaptiveTolerance?: number;
+    // Only these regions are decoded and sampled; one palette is built from all of them.
+    region?: Region | Region[];
+    // Revalidates a cached palette of an http(s) image with a conditional request.
+    revalidate?: boolean;
+    // Lets the request be cancelled with cancel(requestId).
+    requestId?: string;
+    // Reports the stage timings of the extraction with an RNColorThiefTrace event.
+    trace?: boolean;
+}
+
+// 'edges': top, bottom, left and right bands, size as fraction of the image (default 0.1).
+// 'grid': rows x columns cells in row-major order (default 2 x 2, at most 64 cells).
+export type RegionLayout =
+    | { type: 'edges'; size?: number }
+    | { type: 'grid'; rows?: number; columns?: number };
+
+export interface BatchOptions extends ExtractionOptions {
+    // Maximum number of extractions queued or running at a time; defaults to the pool size.
+    concurrency?: number;
+}
+
+export interface BatchItem {
+    palette: ColorObject[] | null;
+    error: string | null;
+}
+
+// Payload of the RNColorThiefBatchItem event; index is the position of the source in sources.
+export interface BatchItemEvent extends BatchItem {
+    batchId: string;
+    index: number;
+    completed: number;
+    total: number;
+}
+
+// Payload of the RNColorThiefBatchDone event, also what startPaletteBatch resolves with.
+export interface BatchSummary {
+    batchId: string;
+    completed: number;
+    total: number;
+    cancelled: boolean;
+}
+
+export interface ConfigureOptions {
+    poolSize?: number;
+    queueSize?: number;
+    rejectionPolicy?: 'abort' | 'callerRuns' | 'discardOldest';
+    // Number of palettes kept in memory, 0 disables the cache.
+    cacheSize?: number;
+    // Number of palettes persisted in the app cache directory, 0 disables the disk cache.
+    diskCacheSize?: number;
+    // Image download timeouts in milliseconds.
+    connectTimeout?: number;
+    readTimeout?: number;
+    // Larger images are refused.
+    maxResponseBytes?: number;
+}
+
+export interface ExecutorStats {
+    poolSize: number;
+    queueSize: number;
+    rejectionPolicy: string;
+    queueDepth: number;
+    activeWorkers: number;
+    submitted: number;
+    completed: number;
+    rejected: number;
+    // Extractions running or queued, and requests which joined one of them.
+    inFlight: number;
+    coalesced: number;
+    cancelled: number;
+}
+
+export interface CacheStats {
+    size: number;
+    maxSize: number;
+    hits: number;
+    misses: number;
+    puts: number;
+    evictions: number;
+    diskSize: number;
+    diskMaxSize: number;
+    diskHits: number;
+    diskMisses: number;
+    diskEvictions: number;
+}
+
+export type ExtractionStage = 'queue' | 'fetch' | 'decode' | 'sample' | 'quantize' | 'total';
+export type ExtractionOutcome = 'extracted' | 'cached' | 'notModified' | 'unavailable' | 'failed' | 'cancelled';
+
+// Payload of the RNColorThiefTrace event; only the stages the extraction went through are present.
+export interface TraceEvent {
+    requestId: string | null;
+    // The image url; data uris are cut down to e.g. 'data:image/png;base64,... (123456 chars)'.
+    source: string;
+    outcome: ExtractionOutcome | null;
+    stagesMs: { [stage in ExtractionStage]?: number };
+    bytesFetched: number;
+    fetchFailed: boolean;
+    decodedPixels: number;
+    sampledPixels: number;
+}
+
+export interface StageStats {
+    count: number;
+    totalMs: number;
+    meanMs: number;
+    maxMs: number;
+    // Upper bounds from the histogram buckets.
+    p50Ms: number;
+    p90Ms: number;
+    p99Ms: number;
+    // Extractions per bucket of bucketBoundsMs, the last one counts everything slower.
+    buckets: number[];
+}
+
+export interface HostStats {
+    host: string;
+    fetches: number;
+    failures: number;
+    bytes: number;
+    meanMs: number;
+    maxMs: number;
+}
+
+export interface ExtractionStats {
+    extractions: number;
+    bytesFetched: number;
+    decodedPixels: number;
+    sampledPixels: number;
+    outcomes: { [outcome in ExtractionOutcome]: number };
+    bucketBoundsMs: number[];
+    stages: { [stage in ExtractionStage]: StageStats };
+    // The most recently seen hosts of http(s) images.
+    hosts: HostStats[];
+}
+
 export function getColor(source: string, quality: number, ignoreWhite: boolean): Promise<ColorObject>;
 export function getPalette(source: string, colorCount: number, quality: number, ignoreWhite: boolean): Promise<ColorObject[]>;
+
+// Android only
+export function getColorWithOptions(source: string, options: ExtractionOptions): Promise<ColorObject>;
+export function getPaletteWithOptions(source: string, options: ExtractionOptions): Promise<ColorObject[]>;
+export function getRegionPalettes(source: string, layout: RegionLayout, options: ExtractionOptions): Promise<(ColorObject[] | null)[]>;
+export function getPalettes(sources: string[], options: BatchOptions): Promise<BatchItem[]>;
+export function startPaletteBatch(batchId: string, sources: string[], options: BatchOptions): Promise<BatchSummary>;
+export function cancelPaletteBatch(batchId: string): void;
+export function cancel(requestId: string): void;
+export const BATCH_ITEM_EVENT: 'RNColorThiefBatchItem';
+export const BATCH_DONE_EVENT: 'RNColorThiefBatchDone';
+export const TRACE_EVENT: 'RNColorThiefTrace';
+export function configure(options: ConfigureOptions): Promise<void>;
+export function getExecutorStats(): Promise<ExecutorStats>;
+export function getCacheStats(): Promise<CacheStats>;
+export function clearCache(): Promise<void>;
+export function getExtractionStats(): Promise<ExtractionStats>;
+export function resetExtractionStats(): Promise<void>;